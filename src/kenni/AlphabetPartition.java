@@ -0,0 +1,234 @@
+package kenni;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.TreeSet;
+
+import kenni.BaseAutomaton.State;
+
+/**
+ * <p>Partition of the alphabet into equivalence classes of characters, such that all
+ * characters of one class are treated the same way by every transition of an automaton.</p>
+ * <p>
+ * Classes are numbered from zero in the order of their lowest characters, so the class of
+ * character 0 is always 0. A character is mapped to its class by a single table read,
+ * the table has an entry for every char, or for every byte value if the partition
+ * was created for bytes.</p>
+ * @author Libor
+ *
+ */
+public class AlphabetPartition {
+	/* Private fields */
+	// Maps every character (or byte) to its class
+	private final char[] classTable;
+	private final int classCount;
+	// Sorted disjoint ranges of each class as pairs of inclusive bounds
+	private final char[][] classRanges;
+	private final Symbol[] classSymbols;
+	
+	/* Constructors and factory methods */
+	
+	private AlphabetPartition(char[] classTable, int classCount, char[][] classRanges) {
+		this.classTable = classTable;
+		this.classCount = classCount;
+		this.classRanges = classRanges;
+		this.classSymbols = new Symbol[classCount];
+	}
+	
+	/**
+	 * Creates the partition of the whole char alphabet for the given automaton.
+	 * @param aut
+	 * @return
+	 */
+	public static AlphabetPartition create(BaseAutomaton aut) {
+		return create(collectSymbols(aut), Character.MAX_VALUE + 1);
+	}
+	
+	/**
+	 * Creates the partition of byte values (0 to 255) for the given automaton. Transitions
+	 * over characters above 255 are ignored.
+	 * @param aut
+	 * @return
+	 */
+	public static AlphabetPartition createForBytes(BaseAutomaton aut) {
+		return create(collectSymbols(aut), 256);
+	}
+	
+	/**
+	 * Creates the partition of the whole char alphabet for the given set of symbols.
+	 * Epsilon and wild card do not split the alphabet and are ignored.
+	 * @param symbols
+	 * @return
+	 */
+	public static AlphabetPartition create(Collection<Symbol> symbols) {
+		return create(symbols, Character.MAX_VALUE + 1);
+	}
+	
+	/* Private methods */
+	
+	private static Collection<Symbol> collectSymbols(BaseAutomaton aut) {
+		final LinkedHashSet<Symbol> symbols = new LinkedHashSet<>();
+		aut.actionOverTransitions((State source, Symbol symbol, State target) -> symbols.add(symbol));
+		return symbols;
+	}
+	
+	private static AlphabetPartition create(Collection<Symbol> symbolSet, int alphabetSize) {
+		// Only these symbols distinguish characters
+		ArrayList<Symbol> symbols = new ArrayList<>();
+		for (Symbol symbol : symbolSet) {
+			if (symbol != Symbol.EPSILON && symbol != Symbol.WILD_CARD && symbol != Symbol.COMPLEMENT)
+				symbols.add(symbol);
+		}
+		
+		// Split the alphabet into elementary intervals by the bounds of all symbols
+		TreeSet<Integer> boundSet = new TreeSet<>();
+		boundSet.add(0);
+		for (Symbol symbol : symbols) {
+			if (symbol.isCharClass()) {
+				for (int r = 0; r < symbol.getRangeCount(); ++r) {
+					boundSet.add((int) symbol.getRangeStart(r));
+					boundSet.add(symbol.getRangeEnd(r) + 1);
+				}
+			} else {
+				boundSet.add((int) symbol.value);
+				boundSet.add(symbol.value + 1);
+			}
+		}
+		int[] bounds = new int[boundSet.headSet(alphabetSize).size() + 1];
+		int length = 0;
+		for (int bound : boundSet.headSet(alphabetSize)) {
+			bounds[length++] = bound;
+		}
+		bounds[length] = alphabetSize;
+		int intervalCount = length;
+		
+		// Signature of an interval is the set of symbols matching it. Intervals with equal
+		// signatures belong to the same class.
+		BitSet[] signatures = new BitSet[intervalCount];
+		for (int i = 0; i < intervalCount; ++i) {
+			signatures[i] = new BitSet();
+		}
+		for (int k = 0; k < symbols.size(); ++k) {
+			Symbol symbol = symbols.get(k);
+			int rangeCount = symbol.isCharClass() ? symbol.getRangeCount() : 1;
+			for (int r = 0; r < rangeCount; ++r) {
+				int lo = symbol.isCharClass() ? symbol.getRangeStart(r) : symbol.value;
+				int hi = symbol.isCharClass() ? symbol.getRangeEnd(r) : symbol.value;
+				for (int i = findInterval(bounds, intervalCount, lo);
+						i < intervalCount && bounds[i] <= hi; ++i) {
+					signatures[i].set(k);
+				}
+			}
+		}
+		
+		char[] classTable = new char[alphabetSize];
+		HashMap<BitSet, Integer> signatureToClass = new HashMap<>();
+		ArrayList<ArrayList<Character>> ranges = new ArrayList<>();
+		for (int i = 0; i < intervalCount; ++i) {
+			Integer cls = signatureToClass.get(signatures[i]);
+			if (cls == null) {
+				cls = signatureToClass.size();
+				signatureToClass.put(signatures[i], cls);
+				ranges.add(new ArrayList<>());
+			}
+			for (int c = bounds[i]; c < bounds[i + 1]; ++c) {
+				classTable[c] = (char) (int) cls;
+			}
+			ArrayList<Character> classRange = ranges.get(cls);
+			classRange.add((char) bounds[i]);
+			classRange.add((char) (bounds[i + 1] - 1));
+		}
+		
+		char[][] classRanges = new char[ranges.size()][];
+		for (int cls = 0; cls < classRanges.length; ++cls) {
+			classRanges[cls] = new char[ranges.get(cls).size()];
+			for (int i = 0; i < classRanges[cls].length; ++i) {
+				classRanges[cls][i] = ranges.get(cls).get(i);
+			}
+		}
+		return new AlphabetPartition(classTable, classRanges.length, classRanges);
+	}
+	
+	/* Returns the index of the elementary interval containing c */
+	private static int findInterval(int[] bounds, int intervalCount, int c) {
+		int lo = 0;
+		int hi = intervalCount - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (bounds[mid] <= c)
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+		return hi;
+	}
+	
+	/* Public methods */
+	
+	/**
+	 * Returns the class of the given character. For partitions of bytes, c has to be lower
+	 * than 256.
+	 * @param c
+	 * @return
+	 */
+	public int classOf(char c) {
+		return classTable[c];
+	}
+	
+	/**
+	 * Returns the class of the given byte value. Only for partitions created for bytes.
+	 * @param b
+	 * @return
+	 */
+	public int classOfByte(byte b) {
+		return classTable[b & 0xFF];
+	}
+	
+	public int getClassCount() {
+		return classCount;
+	}
+	
+	/* Returns the table mapping characters to classes, it must not be changed */
+	char[] getClassTable() {
+		return classTable;
+	}
+	
+	/**
+	 * Returns the size of the alphabet covered by this partition, i.e. 65536 or 256.
+	 * @return
+	 */
+	public int getAlphabetSize() {
+		return classTable.length;
+	}
+	
+	/**
+	 * Returns some character of the given class. All characters of a class are treated the same
+	 * way, so the representative can be used for computing transitions of the whole class.
+	 * @param cls
+	 * @return The lowest character of the class.
+	 */
+	public char getRepresentative(int cls) {
+		return classRanges[cls][0];
+	}
+	
+	/**
+	 * Returns a symbol matching exactly the characters of the given class.
+	 * @param cls
+	 * @return
+	 */
+	public synchronized Symbol getClassSymbol(int cls) {
+		if (classSymbols[cls] == null)
+			classSymbols[cls] = Symbol.getCharClass(classRanges[cls]);
+		return classSymbols[cls];
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("[Alphabet partition: ").append(classCount).append(" classes]");
+		return sb.toString();
+	}
+}
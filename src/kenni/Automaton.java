@@ -1,9 +1,14 @@
 package kenni;
 
+import java.util.AbstractCollection;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Stack;
 import java.util.function.Consumer;
 
@@ -20,10 +25,14 @@ public class Automaton extends BaseAutomaton {
 	private HashSet<State> EMPTY_SET = new HashSet<>();
 	/* Private fields */
 	private final String name;
-	//private HashSet<State> states = new HashSet<>();
 	private State startState = null;
-	private HashSet<State> finalStates = new HashSet<>();
-	private HashMap<State, HashMap<Symbol, HashSet<State> > > transitions = new HashMap<>();
+	// Indices of the final states
+	private BitSet finalStates = new BitSet();
+	// States contained in this automaton in the order of insertion. The transitions
+	// of a state are kept in rows.get(state.index), keyed by symbol ordinals and storing indices
+	// of the target states. The row of a state that is not contained is null.
+	private ArrayList<State> states = new ArrayList<>();
+	private ArrayList<TransitionRow> rows = new ArrayList<>();
 	
 	/* Constructors */
 	public Automaton(String name) {
@@ -42,83 +51,120 @@ public class Automaton extends BaseAutomaton {
 	 * and they are used to access and manipulate set of states and transitions
 	 */
 	
+	/* Returns the transition row of an existing state */
+	private TransitionRow getRow(State state) {
+		assert(containsState(state));
+		return rows.get(state.index);
+	}
+	
 	/* Does this automaton contain given state? */
 	private boolean containsState(State state) {
 		// All states in this automaton have this automaton set as parent
-		assert(!transitions.containsKey(state) || state.parent == this);
-		return transitions.containsKey(state);
+		return state != null && state.parent == this && state.index < rows.size()
+				&& rows.get(state.index) != null;
 	}
 	
 	/* Does this automaton contain given transition? */
 	private boolean containsTransition(State source, Symbol symbol, State target) {
-		assert(!transitions.containsKey(source) || source.parent == this);
-		assert(!transitions.containsKey(target) || target.parent == this);
-		return (transitions.containsKey(source) && transitions.get(source).containsKey(symbol)
-				&& transitions.get(source).get(symbol).contains(target));
+		assert(!containsState(source) || source.parent == this);
+		assert(!containsState(target) || target.parent == this);
+		if (!containsState(source) || !containsState(target))
+			return false;
+		TargetSet targetSet = getRow(source).get(symbol.ordinal);
+		return targetSet != null && targetSet.contains(target.index);
 	}
 	
 	/* Inserts the state into underlying transition collection, that is not there yet. */
 	private void insertNewIntoCollection(State state) {
 		assert(state.parent == this);
-		assert(!transitions.containsKey(state));
-		transitions.put(state, new HashMap<>());
-	}
-	
-	/* Removes an empty target set for the given state and transition symbol */
-	private void removeEmptyFromCollection(State state, Symbol symbol) {
-		assert(transitions.containsKey(state));
-		HashMap<Symbol, HashSet<State>> image = transitions.get(state);
-		assert(!image.containsKey(symbol) || image.get(symbol).isEmpty());
-		image.remove(symbol);
+		assert(!containsState(state));
+		states.add(state);
+		while (rows.size() <= state.index)
+			rows.add(null);
+		rows.set(state.index, new TransitionRow());
 	}
 	
 	/* Returns a collection of all states in this automaton */
 	private Collection<State> getStates() {
-		return transitions.keySet();
+		return states;
 	}
 	
-	/* Returns target set for given state and symbol */
+	/* Returns target set for given state and symbol, or null if there is no such transition */
 	private Collection<State> getTarget(State state, Symbol symbol) {
 		assert(containsState(state));
-		assert(transitions.containsKey(state));
-		return transitions.get(state).get(symbol);
+		TargetSet targetSet = getRow(state).get(symbol.ordinal);
+		if (targetSet == null)
+			return null;
+		return new TargetView(targetSet);
+	}
+	
+	/* Adds all targets of given state and symbol into result */
+	private void collectTarget(State state, Symbol symbol, Collection<State> result) {
+		assert(containsState(state));
+		collectTargetSet(getRow(state).get(symbol.ordinal), result);
+	}
+	
+	private void collectTargetSet(TargetSet targetSet, Collection<State> result) {
+		if (targetSet == null)
+			return;
+		for (int i = 0; i < targetSet.getSlotCount(); ++i) {
+			int target = targetSet.getSlot(i);
+			if (target != TargetSet.FREE)
+				result.add(stateAt(target));
+		}
+	}
+	
+	/* Adds all targets reachable by reading the character c into result, that is targets
+	 * over the symbol of c, over the wild card and over all classes containing c. */
+	private void collectCharTarget(State state, Symbol charSymbol, char c, Collection<State> result) {
+		assert(containsState(state));
+		TransitionRow row = getRow(state);
+		collectTargetSet(row.get(charSymbol.ordinal), result);
+		collectTargetSet(row.get(Symbol.WILD_CARD.ordinal), result);
+		int[] classTargets = row.getClassTargets(c);
+		if (classTargets != null) {
+			for (int target : classTargets) {
+				result.add(stateAt(target));
+			}
+		}
 	}
 	
 	/* Connects an existing source to an existing target over a symbol */
 	private void insertTarget(State source, Symbol symbol, State target) {
 		assert(containsState(source));
-		assert(transitions.containsKey(source));
 		assert(containsState(target));
-		assert(transitions.containsKey(target));
-		
-		HashMap<Symbol, HashSet<State>> image = transitions.get(source);
-		HashSet<State> targetSet = image.get(symbol);
-		if (targetSet == null) {
-			image.put(symbol, new HashSet<State>());
-			targetSet = image.get(symbol);
-		}
-		targetSet.add(target);
+		TransitionRow row = getRow(source);
+		row.getOrCreate(symbol.ordinal).add(target.index);
+		if (symbol.isCharClass())
+			row.invalidateIntervals();
 	}
 	
-	/* Removes a transition (if exists) from existing source over a symbol over and existing target */
+	/* Removes a transition (if exists) from existing source over a symbol over and existing target.
+	 * If the target set becomes empty, it is removed as well. */
 	private void removeTarget(State source, Symbol symbol, State target) {
 		assert(containsState(source));
-		assert(transitions.containsKey(source));
 		assert(containsState(target));
-		assert(transitions.containsKey(target));
-		
-		HashMap<Symbol, HashSet<State>> image = transitions.get(source);
-		HashSet<State> targetSet = image.get(symbol);
+		TransitionRow row = getRow(source);
+		TargetSet targetSet = row.get(symbol.ordinal);
 		if (targetSet != null) {
-			targetSet.remove(target);
+			targetSet.remove(target.index);
+			if (targetSet.isEmpty())
+				row.remove(symbol.ordinal);
+			if (symbol.isCharClass())
+				row.invalidateIntervals();
 		}
 	}
 	
 	/* Return a collection of all outgoing symbols from the given state */
 	private Collection<Symbol> getActiveSymbols(State source) {
 		assert(containsState(source));
-		assert(transitions.containsKey(source));
-		return transitions.get(source).keySet();
+		TransitionRow row = getRow(source);
+		ArrayList<Symbol> result = new ArrayList<>(row.size());
+		for (int i = 0; i < row.getSlotCount(); ++i) {
+			if (row.getKey(i) != TransitionRow.FREE)
+				result.add(Symbol.fromOrdinal(row.getKey(i)));
+		}
+		return result;
 	}
 
 	/* Private and public methods for building the automaton */
@@ -133,7 +179,7 @@ public class Automaton extends BaseAutomaton {
 	 */
 	private State localize(State state) {
 		if (state.parent != this)
-			return touch(state.id);
+			return touch(state.getId());
 		else
 			return state;
 	}
@@ -182,22 +228,18 @@ public class Automaton extends BaseAutomaton {
 	 * Inserts the given state into this automaton.
 	 * @param state The state to be inserted
 	 * @param force If false, new state will not be inserted if it exists already. Otherwise,
-	 * not yet used state name will be generated and a state with this name will be created.
-	 * @return The State actually inserted. If force is true, this may be state with a different name
+	 * a new state with the same name will be created and inserted.
+	 * @return The State actually inserted. If force is true, this may be a different state
 	 * than requested.
 	 */
 	public State insertState(State state, boolean force) {
 		if (state == null)
 			return null;
 		state = localize(state);
-		if (!insertStateIfNew_p(state)) {
-			// State exists already, generate non-conflicting name			
-			StringBuilder sb = new StringBuilder();
-			sb.append(state.id);
-			do { 
-				sb.append("'");
-				state = touch(sb.toString());
-			} while (!insertStateIfNew_p(state));
+		if (!insertStateIfNew_p(state) && force) {
+			// State exists already, create a distinct state with the same name
+			state = touchCopy(state.getId());
+			insertNewIntoCollection(state);
 		}
 		return state;
 	}
@@ -214,32 +256,85 @@ public class Automaton extends BaseAutomaton {
 		if (state == null)
 			return null;
 		state = localize(state);
-		if (containsState(state)) {
-			// State exists already, generate non-conflicting name			
-			StringBuilder sb = new StringBuilder();
-			sb.append(state.id);
-			do { 
-				sb.append("'");
-				state = touch(sb.toString());
-			} while (containsState(state));
-		}
+		if (containsState(state))
+			return touchCopy(state.getId());
 		return state;
 	}
 	
-
+	/**
+	 * Creates count new anonymous states and inserts them into this automaton.
+	 * @param count
+	 * @return The inserted states.
+	 */
+	public State[] insertNewStates(int count) {
+		State[] result = touchAll(count);
+		reserve(count);
+		for (State state : result) {
+			insertNewIntoCollection(state);
+		}
+		return result;
+	}
+	
+	/**
+	 * Inserts transitions given as an edge list. The i-th transition leads from
+	 * states[sources[i]] to states[targets[i]] over symbols[i]. All the states have to be
+	 * contained in this automaton already, e.g. created by insertNewStates(int). Unlike
+	 * insertTransition, this method does not localize the states, so it is suitable
+	 * for loading large automata.
+	 * @param states The states referred to by sources and targets.
+	 * @param sources Indices of the source states into states.
+	 * @param symbols The transition symbols.
+	 * @param targets Indices of the target states into states.
+	 */
+	public void insertTransitions(State[] states, int[] sources, Symbol[] symbols, int[] targets) {
+		if (sources.length != symbols.length || sources.length != targets.length)
+			throw new IllegalArgumentException("Edge arrays differ in length");
+		for (int i = 0; i < sources.length; ++i) {
+			State source = states[sources[i]];
+			State target = states[targets[i]];
+			if (!containsState(source) || !containsState(target))
+				throw new IllegalArgumentException("State is not contained in this automaton: "
+						+ (containsState(source) ? target : source));
+			insertTransitionUnchecked(source, symbols[i], target);
+		}
+	}
+	
+	/* Package private methods for bulk building */
+	
+	/* Preallocates the storage for the given number of states to be inserted */
+	void reserve(int count) {
+		states.ensureCapacity(states.size() + count);
+		rows.ensureCapacity(getStateIndexBound() + count);
+	}
+	
+	/* Connects two contained states without localizing them */
+	void insertTransitionUnchecked(State source, Symbol symbol, State target) {
+		assert(containsState(source));
+		assert(containsState(target));
+		TransitionRow row = rows.get(source.index);
+		row.getOrCreate(symbol.ordinal).add(target.index);
+		if (symbol.isCharClass())
+			row.invalidateIntervals();
+	}
 	
+	/* Inserts a state of this automaton that is not contained yet */
+	void insertNewUnchecked(State state) {
+		insertNewIntoCollection(state);
+	}
+	
+
 	//========== Setting final and initial states
 	
 	private void markAsFinal_p(State state) {
 		assert(state.parent == this);
 		assert(containsState(state));
-		finalStates.add(state);
+		finalStates.set(state.index);
 	}
 	
 	private void unmarkAsFinal_p(State state) {
 		assert(state.parent == this);
 		assert(containsState(state));
-		finalStates.remove(state);
+		finalStates.clear(state.index);
 	}
 	
 	/**
@@ -289,10 +384,7 @@ public class Automaton extends BaseAutomaton {
 	}
 	
 	private boolean isStartState_p(State state) {
-		if (state != null)
-			return state.equals(startState);
-		else
-			return false;
+		return state != null && state == startState;
 	}
 	
 	@Override
@@ -302,7 +394,7 @@ public class Automaton extends BaseAutomaton {
 	
 	@Override
 	public boolean isFinalState(State state) {
-		return finalStates.contains(state);
+		return state != null && state.parent == this && finalStates.get(state.index);
 	}
 	
 	@Override
@@ -315,9 +407,9 @@ public class Automaton extends BaseAutomaton {
 	
 	@Override
 	public void actionOverFinalStates(Consumer<State> action) {
-		for (State st : finalStates) {
-			action.accept(st);
-		}			
+		for (int i = finalStates.nextSetBit(0); i >= 0; i = finalStates.nextSetBit(i + 1)) {
+			action.accept(stateAt(i));
+		}
 	}
 	
 	@Override
@@ -345,11 +437,12 @@ public class Automaton extends BaseAutomaton {
 			State top = st.pop();
 			result.add(top);
 			
-			Collection<State> targetSet = getTarget(top, Symbol.EPSILON);
+			TargetSet targetSet = getRow(top).get(Symbol.EPSILON.ordinal);
 			if (targetSet != null) {
-				for (State follow : targetSet) {
-					if (!result.contains(follow))
-						st.push(follow);
+				for (int i = 0; i < targetSet.getSlotCount(); ++i) {
+					int follow = targetSet.getSlot(i);
+					if (follow != TargetSet.FREE && !result.contains(stateAt(follow)))
+						st.push(stateAt(follow));
 				}
 			}
 			/*
@@ -411,9 +504,7 @@ public class Automaton extends BaseAutomaton {
 			return EMPTY_SET;
 		HashSet<State> result = new HashSet<>();
 		for (State state : stateSet) {
-			Collection<State> followSet = getTarget(state, symbol);
-			if (followSet != null)
-				result.addAll(followSet);
+			collectTarget(state, symbol, result);
 			/*
 			TransitionPair tpair = new TransitionPair(state, symbol);
 			HashSet<State> followSet = transitions.get(tpair);
@@ -424,39 +515,74 @@ public class Automaton extends BaseAutomaton {
 		return result;
 	}	
 	
+	@Override
+	public Collection<State> getTransition(State state, char c) {
+		HashSet<State> result = new HashSet<>();
+		if (containsState(state))
+			collectCharTarget(state, Symbol.getSymbol(c), c, result);
+		return result;
+	}
+	
+	@Override
+	public Collection<State> getTransition(Collection<State> stateSet, char c) {
+		if (stateSet == null)
+			return EMPTY_SET;
+		Symbol charSymbol = Symbol.getSymbol(c);
+		HashSet<State> result = new HashSet<>();
+		for (State state : stateSet) {
+			collectCharTarget(state, charSymbol, c, result);
+		}
+		return result;
+	}
+	
 	/**
 	 * Dumps the transition table for this automaton.
 	 * @return Transition table as String.
 	 */
-	private void listState(State state, StringBuilder sb, String postfix) {
+	private void listState(State state, String label, StringBuilder sb, String postfix) {
 		sb.append(System.lineSeparator());
-		if (finalStates.contains(state) && isStartState(state))
+		if (isFinalState(state) && isStartState(state))
 			sb.append("<>");
-		else if (finalStates.contains(state))
+		else if (isFinalState(state))
 			sb.append("<-");
 		else if (isStartState(state))
 			sb.append("->");
 		else
 			sb.append("  ");
-		sb.append(state.id).append(postfix).append(":: ");
+		sb.append(label).append(postfix).append(":: ");
+	}
+	
+	/* Assigns unique labels to the states for dumping. States with clashing names
+	 * are distinguished by appending primes in the order of insertion. */
+	private HashMap<State, String> createLabels() {
+		HashMap<State, String> labels = new HashMap<>();
+		HashSet<String> used = new HashSet<>();
+		for (State state : getStates()) {
+			String label = state.getId();
+			while (!used.add(label))
+				label = label + "'";
+			labels.put(state, label);
+		}
+		return labels;
 	}
 	
 	@Override
 	public String dump() {
 		// Get all entries and sort them lexicographically
+		final HashMap<State, String> labels = createLabels();
 		ArrayList<State> entries = new ArrayList<>(getStates());
-		entries.sort((State s1, State s2) -> s1.id.compareTo(s2.id));
+		entries.sort((State s1, State s2) -> labels.get(s1).compareTo(labels.get(s2)));
 		
 		StringBuilder sb = new StringBuilder();
 		for (State source : entries) {
-			listState(source, sb, name);
+			listState(source, labels.get(source), sb, name);
 			// Iterate over transitions for this state
 			Collection<Symbol> activeSymbols = getActiveSymbols(source);
 			for (Symbol symbol : activeSymbols) {
 				sb.append("(").append(symbol).append(": ");
 				Collection<State> targetSet = getTarget(source, symbol);
 				for (State target : targetSet) {
-					sb.append(target.id).append(name).append(" ");
+					sb.append(labels.get(target)).append(name).append(" ");
 				}
 				sb.append(") ");
 			}
@@ -496,9 +622,204 @@ public class Automaton extends BaseAutomaton {
 					assert(containsTransition(source, Symbol.EPSILON, closureState));
 					removeTarget(source, Symbol.EPSILON, closureState);
 				}
-				removeEmptyFromCollection(source, Symbol.EPSILON);
 			}
 		});
 	}
 
+	/**
+	 * Returns the approximate number of bytes occupied by the states and transitions of this
+	 * automaton, assuming compressed references.
+	 * @return
+	 */
+	public long getMemoryFootprint() {
+		// State objects, their slots in the lists and in the interning array
+		long result = 32L * states.size() + 4L * states.size() + 4L * rows.size()
+				+ 4L * getStateIndexBound() + finalStates.size() / 8;
+		for (State state : states) {
+			result += rows.get(state.index).getMemoryFootprint();
+		}
+		return result;
+	}
+	
+	/**
+	 * Removes all states that are not reachable from the start state or from which no final
+	 * state is reachable, together with their transitions. The start state is always kept, so
+	 * an automaton of the empty language is trimmed down to its start state. If there is no
+	 * start state, only the states that cannot reach a final state are removed.
+	 * Indices of the kept states do not change.
+	 * @return The number of removed states.
+	 */
+	public int trim() {
+		int bound = rows.size();
+		int[] stack = new int[states.size() + 1];
+		int top = 0;
+		
+		// Forward reachability, all states are reachable if there is no start state
+		BitSet reachable = new BitSet(bound);
+		if (startState != null) {
+			reachable.set(startState.index);
+			stack[top++] = startState.index;
+		} else {
+			for (State state : states)
+				reachable.set(state.index);
+		}
+		while (top > 0) {
+			TransitionRow row = rows.get(stack[--top]);
+			for (int i = 0; i < row.getSlotCount(); ++i) {
+				if (row.getKey(i) == TransitionRow.FREE)
+					continue;
+				TargetSet targetSet = row.getValue(i);
+				for (int j = 0; j < targetSet.getSlotCount(); ++j) {
+					int target = targetSet.getSlot(j);
+					if (target != TargetSet.FREE && !reachable.get(target)) {
+						reachable.set(target);
+						stack[top++] = target;
+					}
+				}
+			}
+		}
+		
+		// Reverse edges of the reachable part stored as adjacency arrays
+		int[] reverseStart = new int[bound + 1];
+		forEachReachableEdge(reachable, (int source, int target) -> ++reverseStart[target + 1]);
+		for (int i = 0; i < bound; ++i)
+			reverseStart[i + 1] += reverseStart[i];
+		int[] reverseSource = new int[reverseStart[bound]];
+		int[] fill = Arrays.copyOf(reverseStart, bound);
+		forEachReachableEdge(reachable, (int source, int target) -> reverseSource[fill[target]++] = source);
+		
+		// Backward reachability from the reachable final states
+		BitSet live = new BitSet(bound);
+		for (int i = finalStates.nextSetBit(0); i >= 0; i = finalStates.nextSetBit(i + 1)) {
+			if (reachable.get(i)) {
+				live.set(i);
+				stack[top++] = i;
+			}
+		}
+		while (top > 0) {
+			int state = stack[--top];
+			for (int k = reverseStart[state]; k < reverseStart[state + 1]; ++k) {
+				if (!live.get(reverseSource[k])) {
+					live.set(reverseSource[k]);
+					stack[top++] = reverseSource[k];
+				}
+			}
+		}
+		if (startState != null)
+			live.set(startState.index);
+		
+		// Remove the useless states and the transitions leading to them
+		ArrayList<State> kept = new ArrayList<>(live.cardinality());
+		for (State state : states) {
+			if (live.get(state.index)) {
+				kept.add(state);
+				pruneRow(rows.get(state.index), live);
+			} else {
+				rows.set(state.index, null);
+				finalStates.clear(state.index);
+			}
+		}
+		int removed = states.size() - kept.size();
+		states = kept;
+		return removed;
+	}
+	
+	/* Calls action for each transition between reachable states as a pair of indices */
+	private void forEachReachableEdge(BitSet reachable, IntBiConsumer action) {
+		for (int source = reachable.nextSetBit(0); source >= 0; source = reachable.nextSetBit(source + 1)) {
+			TransitionRow row = rows.get(source);
+			for (int i = 0; i < row.getSlotCount(); ++i) {
+				if (row.getKey(i) == TransitionRow.FREE)
+					continue;
+				TargetSet targetSet = row.getValue(i);
+				for (int j = 0; j < targetSet.getSlotCount(); ++j) {
+					if (targetSet.getSlot(j) != TargetSet.FREE)
+						action.accept(source, targetSet.getSlot(j));
+				}
+			}
+		}
+	}
+	
+	/* Removes targets, that are not live, from the row */
+	private void pruneRow(TransitionRow row, BitSet live) {
+		ArrayList<Integer> keys = new ArrayList<>();
+		for (int i = 0; i < row.getSlotCount(); ++i) {
+			if (row.getKey(i) != TransitionRow.FREE)
+				keys.add(row.getKey(i));
+		}
+		for (int key : keys) {
+			TargetSet targetSet = row.get(key);
+			ArrayList<Integer> dead = new ArrayList<>();
+			for (int j = 0; j < targetSet.getSlotCount(); ++j) {
+				int target = targetSet.getSlot(j);
+				if (target != TargetSet.FREE && !live.get(target))
+					dead.add(target);
+			}
+			if (dead.isEmpty())
+				continue;
+			for (int target : dead)
+				targetSet.remove(target);
+			if (targetSet.isEmpty())
+				row.remove(key);
+			if (Symbol.fromOrdinal(key).isCharClass())
+				row.invalidateIntervals();
+		}
+	}
+	
+	/* Nested classes */
+	
+	/* Action over a pair of state indices */
+	private interface IntBiConsumer {
+		void accept(int source, int target);
+	}
+	
+	/* Read only view of a target set, that translates state indices to states */
+	private class TargetView extends AbstractCollection<State> {
+		private final TargetSet targetSet;
+		
+		TargetView(TargetSet targetSet) {
+			this.targetSet = targetSet;
+		}
+		
+		@Override
+		public boolean contains(Object obj) {
+			if (obj instanceof State) {
+				State state = (State) obj;
+				return state.parent == Automaton.this && targetSet.contains(state.index);
+			} else
+				return false;
+		}
+		
+		@Override
+		public int size() {
+			return targetSet.size();
+		}
+		
+		@Override
+		public Iterator<State> iterator() {
+			return new Iterator<State>() {
+				private int slot = advance(0);
+				
+				private int advance(int from) {
+					while (from < targetSet.getSlotCount() && targetSet.getSlot(from) == TargetSet.FREE)
+						++from;
+					return from;
+				}
+				
+				@Override
+				public boolean hasNext() {
+					return slot < targetSet.getSlotCount();
+				}
+				
+				@Override
+				public State next() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+					State result = stateAt(targetSet.getSlot(slot));
+					slot = advance(slot + 1);
+					return result;
+				}
+			};
+		}
+	}
 }
@@ -1,8 +1,8 @@
 package kenni;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 
 import kenni.BaseAutomaton.State;
@@ -12,6 +12,10 @@ import kenni.BaseAutomaton.State;
  * accessing Automata states just by their name.
  * It contains adaptor methods for most building and accessing methods in the Automata class.</p>
  * <p>
+ * Large automata can be loaded faster by the numbered variants of the methods, where
+ * states are identified by non-negative integers and transitions are passed as edge lists.
+ * Numbered states are anonymous states of the underlying automaton, distinct from the named ones.</p>
+ * <p>
  * If you directly use any of the underlying automaton's method that changes its state, the state
  * of this object will be undefined.</p>
  * @author Libor
@@ -20,8 +24,9 @@ import kenni.BaseAutomaton.State;
 public class AutomatonBuilder {
 	/* Private fields and constants */
 	private Automaton aut;
-	private HashMap<String, State> cache = new HashMap<>();
 	private HashSet<State> EMPTY_SET = new HashSet<>();
+	// Numbered states, created on demand
+	private State[] numbered = new State[0];
 	
 	public AutomatonBuilder(Automaton aut) {
 		this.aut = aut;
@@ -29,13 +34,36 @@ public class AutomatonBuilder {
 	
 	/* Private methods */
 	private State getState(String key) {
-		State result = cache.get(key);
-		if (result == null) {
-			result = aut.touch(key);
-			cache.put(key, result);
+		// States are interned by the automaton
+		return aut.touch(key);
+	}
+	
+	/* Makes sure that states numbered 0 to count - 1 exist */
+	private void ensureNumbered(int count) {
+		if (count > numbered.length) {
+			State[] created = aut.insertNewStates(count - numbered.length);
+			State[] extended = Arrays.copyOf(numbered, count);
+			System.arraycopy(created, 0, extended, numbered.length, created.length);
+			numbered = extended;
+		}
+	}
+	
+	private State getState(int key) {
+		if (key < 0)
+			throw new IllegalArgumentException("Negative state number: " + key);
+		ensureNumbered(key + 1);
+		return numbered[key];
+	}
+	
+	private static int max(int[] values) {
+		int result = -1;
+		for (int value : values) {
+			if (value < 0)
+				throw new IllegalArgumentException("Negative state number: " + value);
+			result = Math.max(result, value);
 		}
-		return result;			
-	}	
+		return result;
+	}
 	
 	/* Public building methods */
 	public void insertTransition(String source, Symbol symbol, String target) {
@@ -67,6 +95,58 @@ public class AutomatonBuilder {
 		}
 	}
 	
+	/* Public bulk building methods */
+	
+	/**
+	 * Inserts transitions between numbered states given as an edge list, i.e. the i-th
+	 * transition leads from sources[i] to targets[i] over symbols[i]. Missing states are
+	 * created at once before inserting any transition.
+	 * @param sources Numbers of the source states.
+	 * @param symbols The transition symbols.
+	 * @param targets Numbers of the target states.
+	 */
+	public void insertTransitions(int[] sources, Symbol[] symbols, int[] targets) {
+		ensureNumbered(Math.max(max(sources), max(targets)) + 1);
+		aut.insertTransitions(numbered, sources, symbols, targets);
+	}
+	
+	/**
+	 * Same as insertTransitions(int[], Symbol[], int[]) for transitions over plain characters.
+	 */
+	public void insertTransitions(int[] sources, char[] symbols, int[] targets) {
+		Symbol[] converted = new Symbol[symbols.length];
+		for (int i = 0; i < symbols.length; ++i) {
+			converted[i] = Symbol.getSymbol(symbols[i]);
+		}
+		insertTransitions(sources, converted, targets);
+	}
+	
+	public void insertTransition(int source, Symbol symbol, int target) {
+		if (symbol != null)
+			aut.insertTransition(getState(source), symbol, getState(target));
+	}
+	
+	public void setStartState(int state) {
+		aut.setStartState(getState(state));
+	}
+	
+	public void markAsFinal(int state) {
+		aut.markAsFinal(getState(state));
+	}
+	
+	public void unmarkAsFinal(int state) {
+		aut.unmarkAsFinal(getState(state));
+	}
+	
+	/**
+	 * Returns the automaton state for the given number. If it does not exist, it is created.
+	 * @param state
+	 * @return
+	 */
+	public State getNumberedState(int state) {
+		return getState(state);
+	}
+	
 	/* Public methods accesing the automaton instance state */
 	
 	/**
@@ -0,0 +1,284 @@
+package kenni;
+
+import java.util.Arrays;
+
+import kenni.BaseAutomaton.State;
+
+/**
+ * <p>Immutable report on the size and the expected simulation cost of an automaton.
+ * It is computed in time linear in the size of the automaton (times the number of alphabet
+ * classes for character class transitions), so it can be computed after every compilation.</p>
+ * <p>
+ * The out-degree is the number of targets of a state over one symbol. The estimated maximum
+ * active set is an upper bound on the number of states a simulator may hold after reading
+ * a character: the epsilon closure of all targets over the class of that character.</p>
+ * @author Libor
+ *
+ */
+public class AutomatonStatistics {
+	/* Private fields */
+	private final String name;
+	private final int stateCount;
+	private final int finalStateCount;
+	private final int transitionCount;
+	private final int epsilonTransitionCount;
+	private final int classCount;
+	private final int maxOutDegree;
+	private final double averageOutDegree;
+	private final int maxActiveStates;
+	private final boolean deterministic;
+	private final long memoryFootprint;
+	private final long compactMemoryFootprint;
+	
+	/* Constructors and factory methods */
+	
+	private AutomatonStatistics(BaseAutomaton aut, CompactNfa nfa) {
+		name = aut.getName();
+		final int[] counts = new int[2];
+		aut.actionOverStates((State state) -> ++counts[0]);
+		aut.actionOverFinalStates((State state) -> ++counts[1]);
+		stateCount = counts[0];
+		finalStateCount = counts[1];
+		
+		// Transitions are reported grouped by the source and the symbol by all automata of
+		// this package, so the out-degree is the length of a run of equal pairs
+		final int[] degrees = new int[5];
+		final State[] lastSource = new State[1];
+		final Symbol[] lastSymbol = new Symbol[1];
+		aut.actionOverTransitions((State source, Symbol symbol, State target) -> {
+			++degrees[0];
+			if (symbol == Symbol.EPSILON)
+				++degrees[1];
+			if (source != lastSource[0] || symbol != lastSymbol[0]) {
+				lastSource[0] = source;
+				lastSymbol[0] = symbol;
+				++degrees[2];
+				degrees[3] = 0;
+			}
+			degrees[4] = Math.max(degrees[4], ++degrees[3]);
+		});
+		transitionCount = degrees[0];
+		epsilonTransitionCount = degrees[1];
+		averageOutDegree = degrees[2] == 0 ? 0 : (double) degrees[0] / degrees[2];
+		maxOutDegree = degrees[4];
+		
+		classCount = nfa.getAlphabet().getClassCount();
+		maxActiveStates = estimateMaxActiveStates(nfa);
+		deterministic = epsilonTransitionCount == 0 && isDeterministic(nfa);
+		if (aut instanceof Automaton)
+			memoryFootprint = ((Automaton) aut).getMemoryFootprint();
+		else if (aut instanceof DeterministicAutomaton)
+			memoryFootprint = ((DeterministicAutomaton) aut).getMemoryFootprint();
+		else if (aut instanceof DoubleArrayTrie)
+			memoryFootprint = ((DoubleArrayTrie) aut).getMemoryFootprint();
+		else
+			memoryFootprint = -1;
+		compactMemoryFootprint = nfa.getMemoryFootprint();
+	}
+	
+	/**
+	 * Computes the statistics of the given automaton. The automaton is not changed.
+	 * @param aut
+	 * @return
+	 */
+	public static AutomatonStatistics compute(BaseAutomaton aut) {
+		return new AutomatonStatistics(aut, new CompactNfa(aut));
+	}
+	
+	/* Private methods */
+	
+	/* The states active after reading a character of class cls are contained in the closure
+	 * of the targets over cls and over the wild card. The closure of the wild card targets
+	 * is common to all classes, so it is computed only once. */
+	private static int estimateMaxActiveStates(CompactNfa nfa) {
+		int n = nfa.getStateCount();
+		if (n == 0)
+			return 0;
+		int classCount = nfa.getAlphabet().getClassCount();
+		// Marks of the states, WILD for the closure of the wild card targets, otherwise
+		// the number of the last pass that has visited the state
+		final int WILD = Integer.MAX_VALUE;
+		int[] mark = new int[n];
+		int[] stack = new int[n];
+		
+		// The start closure is the active set before reading anything
+		int result = nfa.getStartState() < 0 ? 0 : close(nfa, nfa.getStartState(), 1, mark, stack);
+		int wildSize = 0;
+		for (int s = 0; s < n; ++s) {
+			for (int t = nfa.wildStart(s); t < nfa.wildEnd(s); ++t)
+				wildSize += close(nfa, nfa.wildTarget(t), WILD, mark, stack);
+		}
+		
+		// Targets over each class bucketed by the class
+		int[] classStart = new int[classCount + 1];
+		for (int s = 0; s < n; ++s) {
+			for (int t = nfa.firstTransition(s, 0); t < nfa.transitionEnd(s); ++t)
+				++classStart[nfa.transitionClass(t) + 1];
+		}
+		for (int cls = 0; cls < classCount; ++cls)
+			classStart[cls + 1] += classStart[cls];
+		int[] classTarget = new int[classStart[classCount]];
+		int[] fill = Arrays.copyOf(classStart, classCount);
+		for (int s = 0; s < n; ++s) {
+			for (int t = nfa.firstTransition(s, 0); t < nfa.transitionEnd(s); ++t)
+				classTarget[fill[nfa.transitionClass(t)]++] = nfa.transitionTarget(t);
+		}
+		
+		for (int cls = 0; cls < classCount; ++cls) {
+			int size = wildSize;
+			for (int k = classStart[cls]; k < classStart[cls + 1]; ++k)
+				size += close(nfa, classTarget[k], cls + 2, mark, stack);
+			result = Math.max(result, size);
+		}
+		return result;
+	}
+	
+	/* Marks the states of the epsilon closure of the state, that are not marked by pass or
+	 * by the wild card closure yet. Returns the number of newly marked states. */
+	private static int close(CompactNfa nfa, int state, int pass, int[] mark, int[] stack) {
+		if (mark[state] == pass || mark[state] == Integer.MAX_VALUE)
+			return 0;
+		int top = 0;
+		int result = 1;
+		mark[state] = pass;
+		stack[top++] = state;
+		while (top > 0) {
+			int s = stack[--top];
+			for (int t = nfa.epsilonStart(s); t < nfa.epsilonEnd(s); ++t) {
+				int target = nfa.epsilonTarget(t);
+				if (mark[target] != pass && mark[target] != Integer.MAX_VALUE) {
+					mark[target] = pass;
+					stack[top++] = target;
+					++result;
+				}
+			}
+		}
+		return result;
+	}
+	
+	/* Determines whether no state has two distinct targets over one class */
+	private static boolean isDeterministic(CompactNfa nfa) {
+		for (int s = 0; s < nfa.getStateCount(); ++s) {
+			int wildCount = nfa.wildEnd(s) - nfa.wildStart(s);
+			if (wildCount > 1)
+				return false;
+			int wildTarget = wildCount == 1 ? nfa.wildTarget(nfa.wildStart(s)) : -1;
+			for (int t = nfa.firstTransition(s, 0); t < nfa.transitionEnd(s); ++t) {
+				int target = nfa.transitionTarget(t);
+				if (wildTarget >= 0 && target != wildTarget)
+					return false;
+				if (t > nfa.firstTransition(s, 0) && nfa.transitionClass(t - 1) == nfa.transitionClass(t)
+						&& nfa.transitionTarget(t - 1) != target)
+					return false;
+			}
+		}
+		return true;
+	}
+	
+	/* Public methods */
+	
+	public String getName() {
+		return name;
+	}
+	
+	public int getStateCount() {
+		return stateCount;
+	}
+	
+	public int getFinalStateCount() {
+		return finalStateCount;
+	}
+	
+	/**
+	 * Returns the number of transitions, a transition over a character class is counted once.
+	 * @return
+	 */
+	public int getTransitionCount() {
+		return transitionCount;
+	}
+	
+	public int getEpsilonTransitionCount() {
+		return epsilonTransitionCount;
+	}
+	
+	/**
+	 * Returns the ratio of the epsilon transitions to all transitions.
+	 * @return
+	 */
+	public double getEpsilonDensity() {
+		return transitionCount == 0 ? 0 : (double) epsilonTransitionCount / transitionCount;
+	}
+	
+	/**
+	 * Returns the number of classes of the alphabet partition of the automaton.
+	 * @return
+	 */
+	public int getClassCount() {
+		return classCount;
+	}
+	
+	/**
+	 * Returns the maximum number of targets of a state over one symbol.
+	 * @return
+	 */
+	public int getMaxOutDegree() {
+		return maxOutDegree;
+	}
+	
+	/**
+	 * Returns the average number of targets of a state over one symbol, counted over the pairs
+	 * of states and symbols that have some transition.
+	 * @return
+	 */
+	public double getAverageOutDegree() {
+		return averageOutDegree;
+	}
+	
+	/**
+	 * Returns an upper bound on the number of states active at once during a simulation.
+	 * @return
+	 */
+	public int getEstimatedMaxActiveStates() {
+		return maxActiveStates;
+	}
+	
+	/**
+	 * Determines whether the automaton has no epsilon transitions and every state has at most
+	 * one target over each character, i.e. whether it can be simulated without sets of states.
+	 * @return
+	 */
+	public boolean isDeterministic() {
+		return deterministic;
+	}
+	
+	/**
+	 * Returns the approximate number of bytes occupied by the automaton itself, or -1 if it
+	 * cannot be estimated for the type of the automaton.
+	 * @return
+	 */
+	public long getMemoryFootprint() {
+		return memoryFootprint;
+	}
+	
+	/**
+	 * Returns the approximate number of bytes occupied by the CompactNfa of the automaton.
+	 * @return
+	 */
+	public long getCompactMemoryFootprint() {
+		return compactMemoryFootprint;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("[Statistics of ").append(name).append(": ");
+		sb.append(stateCount).append(" states (").append(finalStateCount).append(" final), ");
+		sb.append(transitionCount).append(" transitions (").append(epsilonTransitionCount).append(" epsilon), ");
+		sb.append(classCount).append(" classes, out-degree max ").append(maxOutDegree);
+		sb.append(String.format(" avg %.2f, ", averageOutDegree));
+		sb.append("active states <= ").append(maxActiveStates).append(", ");
+		sb.append(deterministic ? "deterministic" : "nondeterministic").append(", ");
+		sb.append(memoryFootprint).append(" bytes (compact ").append(compactMemoryFootprint).append(" bytes)]");
+		return sb.toString();
+	}
+}
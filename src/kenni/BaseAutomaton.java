@@ -1,7 +1,10 @@
 package kenni;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.EventObject;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.function.Consumer;
 
 /**
@@ -10,6 +13,13 @@ import java.util.function.Consumer;
  *
  */
 public abstract class BaseAutomaton {
+	/* Private fields */
+	// All states created by this automaton, indexed by their index
+	private volatile State[] interned = new State[4];
+	private int stateCount = 0;
+	// Named states, created only when needed
+	private HashMap<String, State> namedStates = null;
+	
 	/* Public methods */
 	
 	/**
@@ -59,6 +69,36 @@ public abstract class BaseAutomaton {
 	
 	public abstract Collection<State> getTransition(Collection<State> stateSet, Symbol symbol);
 	
+	/**
+	 * Returns all states reachable from the given state by reading the character c. That is
+	 * the transition result for the symbol of c, for the wild card and for all character classes
+	 * containing c. Automata with character class transitions have to override this method,
+	 * the default implementation only takes the first two into account.
+	 * @param state
+	 * @param c
+	 * @return Transition result as a set of states.
+	 */
+	public Collection<State> getTransition(State state, char c) {
+		HashSet<State> result = new HashSet<>(getTransition(state, Symbol.getSymbol(c)));
+		result.addAll(getTransition(state, Symbol.WILD_CARD));
+		return result;
+	}
+	
+	/**
+	 * Returns all states reachable from any of the given states by reading the character c.
+	 * @see #getTransition(State, char)
+	 * @param stateSet
+	 * @param c
+	 * @return Transition result as a set of states.
+	 */
+	public Collection<State> getTransition(Collection<State> stateSet, char c) {
+		HashSet<State> result = new HashSet<>();
+		for (State state : stateSet) {
+			result.addAll(getTransition(state, c));
+		}
+		return result;
+	}
+	
 	/**
 	 * Iterates over all states within this Automaton and carries out the
 	 * specified action for each state.
@@ -75,72 +115,143 @@ public abstract class BaseAutomaton {
 	 * @return Transiton table as formatted string.
 	 */
 	public abstract String dump();
+	/**
+	 * Returns an upper bound on the indices of the states of this automaton, i.e. every
+	 * state created by this automaton has its index lower than the returned value.
+	 * Useful for allocating arrays indexed by states. The bound does not cover the states of
+	 * other automata, which actionOverStates may visit (e.g. in UnionAutomatonSim), see StateMap.
+	 * @return
+	 */
+	public int getStateIndexBound() {
+		return stateCount;
+	}
+	
 	/* Protected methods */
 	/**
-	 * Creates a new state associated with this automaton.
+	 * Returns the state associated with this automaton, that has the given name.
+	 * If there is no such state yet, it is created. There is always only one state object
+	 * for each name.
 	 * @param id The name of the state
-	 * @return The created state.
+	 * @return The state.
 	 */
-	protected State touch(String id) {
-		State result = new State(id);
+	protected synchronized State touch(String id) {
+		if (id == null)
+			return touch();
+		if (namedStates == null)
+			namedStates = new HashMap<>();
+		State result = namedStates.get(id);
+		if (result == null) {
+			result = createState(stateCount, id);
+			namedStates.put(id, result);
+		}
 		assert(result.parent == this);
 		return result;
 	}
+	
+	/**
+	 * Creates a new anonymous state associated with this automaton. Its name is generated
+	 * from its index only when it is asked for.
+	 * @return The created state.
+	 */
+	protected synchronized State touch() {
+		return createState(stateCount, null);
+	}
+	
+	/**
+	 * Creates a new state, that has the given name, but is different from every other state
+	 * of this automaton, including the one returned by touch(id). Therefore, names of
+	 * such states are not guaranteed to be unique and they are meant for dumps only.
+	 * @param id The name of the state
+	 * @return The created state.
+	 */
+	protected synchronized State touchCopy(String id) {
+		return createState(stateCount, id);
+	}
+	
+	/**
+	 * Creates count new anonymous states at once.
+	 * @param count
+	 * @return The created states with consecutive indices.
+	 */
+	protected synchronized State[] touchAll(int count) {
+		State[] result = new State[count];
+		if (stateCount + count > interned.length)
+			interned = Arrays.copyOf(interned, Math.max(2 * interned.length, stateCount + count));
+		for (int i = 0; i < count; ++i)
+			result[i] = createState(stateCount, null);
+		return result;
+	}
+	
+	/**
+	 * Returns the state with the given index. If the state object has not been created yet,
+	 * it is created as an anonymous state. This allows automata to materialize State objects
+	 * only for the states that are actually accessed through this interface.
+	 * @param index
+	 * @return
+	 */
+	protected State stateAt(int index) {
+		State[] snapshot = interned;
+		if (index < snapshot.length && snapshot[index] != null)
+			return snapshot[index];
+		synchronized (this) {
+			if (index < interned.length && interned[index] != null)
+				return interned[index];
+			return createState(index, null);
+		}
+	}
+	
+	/* Private methods */
+	
+	/* Creates and interns a new state, the caller holds the lock */
+	private State createState(int index, String id) {
+		assert(index >= stateCount || interned[index] == null);
+		if (index >= interned.length)
+			interned = Arrays.copyOf(interned, Math.max(2 * interned.length, index + 1));
+		State result = new State(index, id);
+		interned[index] = result;
+		stateCount = Math.max(stateCount, index + 1);
+		return result;
+	}
+	
 	/* Nested classes */
 	
 	/**
-	 * Represents an automaton state. The main idea here is to allow
-	 * states to be named, so this little class is used instead of just plain integers.
+	 * Represents an automaton state. Each state has a dense index, that is unique within its
+	 * automaton, and may have a name. There is only one object for each state, so states are
+	 * compared by reference.
 	 * @author Libor
 	 */
 	public class State {
-		public final String id;
+		public final int index;
 		public final BaseAutomaton parent;
-		private State(String id) {
+		/** Name of the state, null for anonymous states. Use getId() to get a name of any state. */
+		public final String id;
+		private final int hash;
+		
+		private State(int index, String id) {
+			this.index = index;
 			this.id = id;
 			this.parent = BaseAutomaton.this;
+			this.hash = 37 * (19 + index) + System.identityHashCode(parent);
 		}
 		
-		private boolean cmpParents(BaseAutomaton other) {
-			if (parent == null) {
-				if (other == null)
-					return true;
-				else 
-					return false;
-			} else
-				return parent.equals(other);
-		}
-		
-		private boolean cmpIDs(String other) {
-			if (id == null) {
-				if (other == null)
-					return true;
-				else
-					return false;
-			} else
-				return id.equals(other);
-		}
-		
-		@Override
-		public boolean equals(Object obj) {
-			if (obj instanceof State) {
-				State other = (State) obj;
-				return cmpParents(other.parent) && cmpIDs(other.id);
-			} else
-				return false;			
+		/**
+		 * Returns the name of this state. For anonymous states, the name is generated from
+		 * the index of the state.
+		 * @return
+		 */
+		public String getId() {
+			return id != null ? id : "_" + index;
 		}
 		
 		@Override
 		public int hashCode() {
-			int result = 19;
-			result = 37 * result + (id == null ? 0 : id.hashCode());
-			result = 37 * result + (parent == null ? 0 : parent.hashCode());
-			return result;
+			return hash;
 		}
 
 		@Override
 		public String toString() {
-			return "[State: " + id + "]";
+			return "[State: " + getId() + "]";
 		}
 	}
 	
@@ -1,7 +1,10 @@
 package kenni;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 
 import kenni.BaseAutomaton.State;
@@ -16,6 +19,12 @@ public class BasicSimulator {
 	// A pooled helper object. It is cleared and rebuilt in next() and then
 	// set as a currentState.
 	private HashSet<State> nextState;
+	// Used for skipping characters, that cannot start a match, while the simulation is idle
+	private Prefilter prefilter = null;
+	private HashSet<State> idleStates = null;
+	// Whether currentState is known to be the start closure or the idle states, in which case
+	// a non-candidate character leads to the idle states without comparing the sets
+	private boolean startOrIdle;
 	
 	public BasicSimulator(BaseAutomaton aut) {
 		this.aut = aut;
@@ -24,10 +33,21 @@ public class BasicSimulator {
 	}
 	
 	public void reset(String sentence) {
+		reset(sentence, 0);
+	}
+	
+	/**
+	 * Resets the simulator to start reading the given sentence at the given offset. Positions
+	 * returned by getCurrentPosition() are still positions in the whole sentence.
+	 * @param sentence
+	 * @param offset
+	 */
+	public void reset(String sentence, int offset) {
 		this.sentence = sentence;
-		position = 0;
+		position = offset;
 		currentState.clear();
 		currentState.addAll(aut.getEpsilonClosure(aut.getStartState()));
+		startOrIdle = true;
 		reseted = true;
 	}
 	
@@ -46,16 +66,18 @@ public class BasicSimulator {
 			return;
 		}
 		
-		Symbol transitionSymbol = Symbol.getSymbol(sentence.charAt(position));
+		char c = sentence.charAt(position);
 		nextState.clear();
-		// Next input symbol
-		nextState.addAll(aut.getTransition(currentState, transitionSymbol));
-		// Wild card
-		nextState.addAll(aut.getTransition(currentState, Symbol.WILD_CARD));
-		// TODO: Complement
+		// Next input character, including wild cards and character classes
+		nextState.addAll(aut.getTransition(currentState, c));
 		
 		currentState = aut.getEpsilonClosure(nextState);
 		++position;
+		if (prefilter != null) {
+			startOrIdle = isIdleAfter(c);
+			if (startOrIdle)
+				position = prefilter.nextCandidate(sentence, position);
+		}
 		//System.out.println(currentState);
 	}
 	
@@ -74,6 +96,56 @@ public class BasicSimulator {
 		return isFinal();
 	}
 	
+	/**
+	 * Determines for each of the given strings whether the underlying automaton accepts it.
+	 * The inputs are processed in lexicographical order, so that a prefix shared by several
+	 * inputs is simulated only once. The state of this simulator is not changed.
+	 * @param sentences The strings to be tested.
+	 * @return A BitSet in which the i-th bit is set iff the i-th sentence (in the iteration
+	 * order of the passed collection) is accepted.
+	 */
+	public BitSet acceptsAll(Collection<? extends CharSequence> sentences) {
+		BitSet result = new BitSet(sentences.size());
+		if (sentences.isEmpty())
+			return result;
+		
+		// Sort the indices of the inputs, so that inputs with common prefixes are adjacent
+		final CharSequence[] inputs = sentences.toArray(new CharSequence[sentences.size()]);
+		Integer[] order = new Integer[inputs.length];
+		for (int i = 0; i < order.length; ++i)
+			order[i] = i;
+		Arrays.sort(order, (Integer i1, Integer i2) -> compare(inputs[i1], inputs[i2]));
+		
+		// levels.get(d) is the simulation state after reading the first d characters
+		// of the previously processed input
+		ArrayList<Collection<State>> levels = new ArrayList<>();
+		levels.add(aut.getEpsilonClosure(aut.getStartState()));
+		CharSequence previous = "";
+		for (int index : order) {
+			CharSequence sentence = inputs[index];
+			int common = commonPrefixLength(previous, sentence);
+			// Forget the states that belong to the part of previous input not shared
+			while (levels.size() > common + 1)
+				levels.remove(levels.size() - 1);
+			for (int i = common; i < sentence.length(); ++i) {
+				levels.add(step(levels.get(i), sentence.charAt(i)));
+			}
+			if (containsFinal(levels.get(sentence.length())))
+				result.set(index);
+			previous = sentence;
+		}
+		return result;
+	}
+	
+	/**
+	 * Array variant of {@link #acceptsAll(Collection)}.
+	 * @param sentences The strings to be tested.
+	 * @return A BitSet in which the i-th bit is set iff the i-th sentence is accepted.
+	 */
+	public BitSet acceptsAll(String[] sentences) {
+		return acceptsAll(Arrays.asList(sentences));
+	}
+	
 	/**
 	 * Returns the current position in the sentence.
 	 */
@@ -87,11 +159,15 @@ public class BasicSimulator {
 	 * @return
 	 */
 	public boolean isFinal() {
-		for (State state : currentState) {
-			if (aut.isFinalState(state))
-				return true;
-		}
-		return false;
+		return containsFinal(currentState);
+	}
+	
+	/**
+	 * Returns all automaton states, that are currently active.
+	 * @return Read only view of the active states.
+	 */
+	public Collection<State> getActiveStates() {
+		return Collections.unmodifiableCollection(currentState);
 	}
 	
 	/**
@@ -109,6 +185,102 @@ public class BasicSimulator {
 		return result;
 	}
 	
+	/* Package private methods */
+	
+	/**
+	 * Sets the prefilter used to skip characters while the simulation is idle. The simulation
+	 * is idle, when it is in the state reached from the start by reading a character, that
+	 * is not a candidate of the prefilter. The prefilter is used only if reading any such
+	 * character from the idle state leads to the idle state again and the idle state is not
+	 * final, so that skipping does not change the results. This holds e.g. for search
+	 * automata with a wild card loop at the start.
+	 * @param prefilter The prefilter or null to turn prefiltering off.
+	 * @return True if the prefilter is used.
+	 */
+	boolean setPrefilter(Prefilter prefilter) {
+		this.prefilter = null;
+		this.idleStates = null;
+		// The current state is checked by comparing the sets on the next non-candidate
+		this.startOrIdle = false;
+		if (prefilter == null || aut.getStartState() == null)
+			return false;
+		
+		// Classes of characters treated the same way by both the automaton and the prefilter
+		final ArrayList<Symbol> symbols = new ArrayList<>(prefilter.getSymbols());
+		aut.actionOverTransitions((State source, Symbol symbol, State target) -> symbols.add(symbol));
+		AlphabetPartition alphabet = AlphabetPartition.create(symbols);
+		
+		Collection<State> start = aut.getEpsilonClosure(aut.getStartState());
+		HashSet<State> idle = null;
+		for (int cls = 0; cls < alphabet.getClassCount(); ++cls) {
+			char c = alphabet.getRepresentative(cls);
+			if (prefilter.isCandidate(c))
+				continue;
+			HashSet<State> fromStart = new HashSet<>(step(start, c));
+			if (idle == null) {
+				idle = fromStart;
+				if (idle.isEmpty() || containsFinal(idle))
+					return false;
+			}
+			if (!fromStart.equals(idle) || !idle.equals(new HashSet<>(step(idle, c))))
+				return false;
+		}
+		if (idle == null)
+			return false;
+		this.prefilter = prefilter;
+		this.idleStates = idle;
+		return true;
+	}
+	
+	/* Private methods */
+	
+	/* Determines whether the simulation is idle after reading c. The sets are compared only
+	 * when a non-candidate character is read outside the start and idle states, i.e. at most
+	 * once per abandoned partial match. */
+	private boolean isIdleAfter(char c) {
+		if (prefilter.isCandidate(c))
+			return false;
+		// setPrefilter() has checked, that non-candidates lead from both states to the idle states
+		if (startOrIdle)
+			return true;
+		return currentState.size() == idleStates.size() && idleStates.containsAll(currentState);
+	}
+	
+	/* Computes the simulation state following the given one after reading c. Unlike next(),
+	 * this does not touch the state of the simulator. */
+	private Collection<State> step(Collection<State> source, char c) {
+		if (source.isEmpty())
+			return source;
+		Collection<State> target = aut.getTransition(source, c);
+		if (target.isEmpty())
+			return Collections.emptySet();
+		return aut.getEpsilonClosure(target);
+	}
+	
+	private boolean containsFinal(Collection<State> stateSet) {
+		for (State state : stateSet) {
+			if (aut.isFinalState(state))
+				return true;
+		}
+		return false;
+	}
+	
+	private static int commonPrefixLength(CharSequence s1, CharSequence s2) {
+		int length = Math.min(s1.length(), s2.length());
+		int i = 0;
+		while (i < length && s1.charAt(i) == s2.charAt(i))
+			++i;
+		return i;
+	}
+	
+	private static int compare(CharSequence s1, CharSequence s2) {
+		int common = commonPrefixLength(s1, s2);
+		if (common < s1.length() && common < s2.length())
+			return Character.compare(s1.charAt(common), s2.charAt(common));
+		else
+			return Integer.compare(s1.length(), s2.length());
+	}
+	
 	/* Methods for testing */
 	public String acceptsAsDump(String sentence) {
 		accepts(sentence);
@@ -0,0 +1,196 @@
+package kenni;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+import kenni.Sffeco.MatchMode;
+
+/**
+ * <p>Searches a stream of documents for the patterns of one shared Sffeco dictionary
+ * using a bounded pool of worker threads.</p>
+ * <p>
+ * The compiled automaton of the dictionary is shared by all workers, each worker
+ * thread only owns its own simulator. Results are passed to the caller as soon as
+ * the search of a document completes, so they do not come in the order of the documents.</p>
+ * @author Libor
+ *
+ */
+public class BatchSearcher implements AutoCloseable {
+	/* Private fields */
+	private final Sffeco dictionary;
+	private final int concurrency;
+	private final ExecutorService executor;
+	private final ThreadLocal<BasicSimulator> simulators;
+	
+	/* Constructors */
+	
+	/**
+	 * Creates a searcher over the given dictionary.
+	 * @param dictionary The dictionary to be searched for.
+	 * @param concurrency The maximal number of documents searched at the same time.
+	 */
+	public BatchSearcher(Sffeco dictionary, int concurrency) {
+		if (dictionary == null)
+			throw new IllegalArgumentException("dictionary must not be null");
+		if (concurrency < 1)
+			throw new IllegalArgumentException("concurrency must be positive");
+		this.dictionary = dictionary;
+		this.concurrency = concurrency;
+		// Searching is CPU bound, so more threads than cores would not help. The library sticks
+		// to Java 8 APIs (newer ones are only called reflectively), so no virtual threads.
+		this.executor = Executors.newFixedThreadPool(concurrency, (Runnable r) -> {
+			Thread thread = new Thread(r, "BatchSearcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.simulators = ThreadLocal.withInitial(() -> dictionary.createSimulator());
+	}
+	
+	public BatchSearcher(Sffeco dictionary) {
+		this(dictionary, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/* Public methods */
+	
+	/**
+	 * Searches all the given documents and blocks until all of them are done.
+	 * @param documents The documents to be searched in.
+	 * @param onResult Called for each document with its index in the stream and the result of
+	 * {@link Sffeco#search(String)}. It is called from the worker threads, so it has to be thread safe.
+	 * @return Latency statistics of this batch.
+	 * @throws IllegalStateException If the searcher has been closed.
+	 */
+	public BatchStatistics search(Iterator<String> documents,
+			BiConsumer<Integer, ArrayList<Pair<Integer>>> onResult)
+	{
+		if (executor.isShutdown())
+			throw new IllegalStateException("The searcher has been closed");
+		// Bound the number of submitted documents, so that a long stream is not
+		// buffered in the executor's queue as a whole
+		final int maxPending = 2 * concurrency;
+		final Semaphore pending = new Semaphore(maxPending);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong totalLatency = new AtomicLong();
+		final AtomicLong minLatency = new AtomicLong(Long.MAX_VALUE);
+		final AtomicLong maxLatency = new AtomicLong();
+		
+		long batchStart = System.nanoTime();
+		int index = 0;
+		while (documents.hasNext() && failure.get() == null) {
+			final String document = documents.next();
+			final int documentIndex = index++;
+			pending.acquireUninterruptibly();
+			try {
+				executor.execute(() -> {
+					try {
+						long start = System.nanoTime();
+						ArrayList<Pair<Integer>> result = dictionary.search(document,
+								dictionary.needsSimulator(MatchMode.LONGEST_AT_END) ? simulators.get() : null);
+						long latency = System.nanoTime() - start;
+						count.incrementAndGet();
+						totalLatency.addAndGet(latency);
+						minLatency.accumulateAndGet(latency, Math::min);
+						maxLatency.accumulateAndGet(latency, Math::max);
+						if (onResult != null)
+							onResult.accept(documentIndex, result);
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					} finally {
+						pending.release();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// Closed during the batch, the task will never release its permit
+				pending.release();
+				failure.compareAndSet(null, e);
+			}
+		}
+		// Wait for the rest of the documents
+		pending.acquireUninterruptibly(maxPending);
+		pending.release(maxPending);
+		long elapsed = System.nanoTime() - batchStart;
+		
+		if (failure.get() != null)
+			throw new RuntimeException("Batch search failed", failure.get());
+		return new BatchStatistics(count.get(), elapsed, totalLatency.get(),
+				count.get() == 0 ? 0 : minLatency.get(), maxLatency.get());
+	}
+	
+	/**
+	 * Stream variant of {@link #search(Iterator, BiConsumer)}.
+	 */
+	public BatchStatistics search(Stream<String> documents,
+			BiConsumer<Integer, ArrayList<Pair<Integer>>> onResult)
+	{
+		return search(documents.iterator(), onResult);
+	}
+	
+	public Sffeco getDictionary() {
+		return dictionary;
+	}
+	
+	public int getConcurrency() {
+		return concurrency;
+	}
+	
+	/**
+	 * Stops the worker threads. Searches already in progress are finished.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+	
+	/* Nested classes */
+	
+	/**
+	 * Latency statistics of one batch. All times are in nanoseconds.
+	 */
+	public static class BatchStatistics {
+		public final long documents;
+		public final long elapsedTime;
+		public final long totalLatency;
+		public final long minLatency;
+		public final long maxLatency;
+		
+		public BatchStatistics(long documents, long elapsedTime, long totalLatency,
+				long minLatency, long maxLatency)
+		{
+			this.documents = documents;
+			this.elapsedTime = elapsedTime;
+			this.totalLatency = totalLatency;
+			this.minLatency = minLatency;
+			this.maxLatency = maxLatency;
+		}
+		
+		public double getMeanLatency() {
+			return documents == 0 ? 0 : (double) totalLatency / documents;
+		}
+		
+		/**
+		 * Returns the number of documents searched per second of the batch wall time.
+		 */
+		public double getThroughput() {
+			return elapsedTime == 0 ? 0 : documents * 1e9 / elapsedTime;
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("[Documents: ").append(documents)
+				.append(", elapsed: ").append(elapsedTime)
+				.append(", latency min/mean/max: ").append(minLatency).append("/")
+				.append((long) getMeanLatency()).append("/").append(maxLatency).append("]");
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package kenni;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Consumer;
+
+import kenni.BaseAutomaton.State;
+import kenni.IRegularFactory.BeforeInsertedEvent;
+
+/**
+ * <p>Marks the boundaries of capture groups in automata built by a regular factory, so that
+ * PikeVM can extract submatches. A group is created by {@link #capture(int, BaseAutomaton)},
+ * which surrounds the automaton by an opening and a closing state. Entering the opening
+ * state records the start of the group, entering the closing state records its end.</p>
+ * <p>
+ * The tagger has to be passed as the BeforeInsertedEvent consumer (with finalOnly false) to
+ * every factory operation, that uses the tagged automata, so that the marks are moved to the
+ * copied states. Reversal does not support the consumer, so it loses the marks.</p>
+ * <pre>
+ * CaptureTagger tagger = new CaptureTagger();
+ * BaseAutomaton number = tagger.capture(1, digits);
+ * BaseAutomaton field = factory.concatenation("", tagger, false, prefix, number);
+ * int[] slots = new PikeVM(field, tagger).find(text, 0);
+ * </pre>
+ * @author Libor
+ *
+ */
+public class CaptureTagger implements Consumer<BeforeInsertedEvent> {
+	/* Private fields */
+	private final IRegularFactory factory;
+	// Slots recorded when entering the state, slot 2 * g is the start of group g and
+	// slot 2 * g + 1 its end
+	private final HashMap<State, int[]> tags = new HashMap<>();
+	private int groupCount = 1;
+	
+	/* Constructors */
+	
+	/**
+	 * Creates a tagger building the groups by the given factory.
+	 * @param factory
+	 */
+	public CaptureTagger(IRegularFactory factory) {
+		this.factory = factory;
+	}
+	
+	public CaptureTagger() {
+		this(DirectRegularFactory.get());
+	}
+	
+	/* Private methods */
+	
+	/* Creates an automaton accepting the empty word, whose only state records the slot */
+	private Automaton createMarker(String name, int slot) {
+		Automaton result = new Automaton(name);
+		State state = result.insertState(result.touch(name), true);
+		result.setStartState(state);
+		result.markAsFinal(state);
+		addTag(state, slot);
+		return result;
+	}
+	
+	private void addTag(State state, int slot) {
+		int[] old = tags.get(state);
+		if (old == null) {
+			tags.put(state, new int[] { slot });
+		} else {
+			int[] merged = Arrays.copyOf(old, old.length + 1);
+			merged[old.length] = slot;
+			tags.put(state, merged);
+		}
+	}
+	
+	/* Public methods */
+	
+	/**
+	 * Creates an automaton accepting the same language as aut, whose matched part is captured
+	 * as the given group.
+	 * @param group Number of the group, at least 1. Group 0 is the whole match.
+	 * @param aut
+	 * @return
+	 */
+	public BaseAutomaton capture(int group, BaseAutomaton aut) {
+		if (group < 1)
+			throw new IllegalArgumentException("Group numbers start with 1: " + group);
+		groupCount = Math.max(groupCount, group + 1);
+		return factory.concatenation(aut.getName(), this, false, createMarker("(" + group, 2 * group),
+				aut, createMarker(")" + group, 2 * group + 1));
+	}
+	
+	/**
+	 * Returns the number of groups including the group 0.
+	 * @return
+	 */
+	public int getGroupCount() {
+		return groupCount;
+	}
+	
+	/**
+	 * Returns the slots recorded when entering the given state, or null if there are none.
+	 * @param state
+	 * @return
+	 */
+	public int[] getTags(State state) {
+		int[] result = tags.get(state);
+		return result == null ? null : result.clone();
+	}
+	
+	/* Consumer implementation */
+	
+	/**
+	 * Moves the marks of a copied state to its copy.
+	 */
+	@Override
+	public void accept(BeforeInsertedEvent args) {
+		int[] branchTags = tags.get(args.branchState);
+		if (branchTags != null) {
+			for (int slot : branchTags)
+				addTag(args.state, slot);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package kenni;
+
+import java.util.HashMap;
+
+/**
+ * Case folding applied when compiling patterns into automata, so that searches are case
+ * insensitive without changing the searched text. A pattern character is compiled into
+ * a character class of all characters folding to the same character as it does. Such classes
+ * are interned by Symbol, so each of them is shared by all transitions using it.
+ * @author Libor
+ *
+ */
+public enum CaseFolding {
+	/** Characters are matched exactly. */
+	NONE,
+	/** ASCII letters are matched case insensitively, other characters exactly. */
+	ASCII,
+	/** Characters are matched using the Unicode simple case folding (the C and S mappings of
+	 * CaseFolding.txt), e.g. 'k' matches 'K' as well as the Kelvin sign. The Turkic dotted
+	 * and dotless i are folded only by the T mappings, so they match only themselves.
+	 * Characters unknown to the Unicode version of the JDK are matched exactly. */
+	SIMPLE;
+	
+	/* Private methods */
+	
+	/* Lazily created groups of characters with the same simple folding */
+	private static class SimpleGroups {
+		private static final HashMap<Character, char[]> groups = createGroups();
+		
+		private static HashMap<Character, char[]> createGroups() {
+			HashMap<Character, StringBuilder> builders = new HashMap<>();
+			for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; ++c) {
+				char folded = simpleFold((char) c);
+				if (folded != c || Character.toUpperCase((char) c) != c) {
+					StringBuilder sb = builders.get(folded);
+					if (sb == null) {
+						sb = new StringBuilder();
+						builders.put(folded, sb);
+					}
+					sb.append((char) c);
+				}
+			}
+			HashMap<Character, char[]> result = new HashMap<>();
+			for (Character key : builders.keySet()) {
+				StringBuilder sb = builders.get(key);
+				if (sb.indexOf(String.valueOf(key)) < 0)
+					sb.append(key.charValue());
+				result.put(key, sb.toString().toCharArray());
+			}
+			return result;
+		}
+	}
+	
+	/* The one to one case mappings of Character agree with the simple case folding except for
+	 * the characters listed here */
+	private static char simpleFold(char c) {
+		switch (c) {
+		// Dotted and dotless i, which have only T and F mappings
+		case '\u0130':
+		case '\u0131':
+			return c;
+		// S mappings of characters canonically equivalent to other ones
+		case '\u1FD3':
+			return '\u0390';
+		case '\u1FE3':
+			return '\u03B0';
+		case '\uFB05':
+			return '\uFB06';
+		default:
+			return Character.toLowerCase(Character.toUpperCase(c));
+		}
+	}
+	
+	/* Public methods */
+	
+	/**
+	 * Returns the canonical character of the given one, two characters match each other
+	 * iff they have the same canonical character.
+	 * @param c
+	 * @return
+	 */
+	public char fold(char c) {
+		switch (this) {
+		case ASCII:
+			return c >= 'A' && c <= 'Z' ? (char) (c - 'A' + 'a') : c;
+		case SIMPLE:
+			return simpleFold(c);
+		default:
+			return c;
+		}
+	}
+	
+	/**
+	 * Returns the symbol matching all characters, that fold to the same character as c.
+	 * @param c
+	 * @return A plain symbol of c, if no other character folds the same way.
+	 */
+	public Symbol toSymbol(char c) {
+		switch (this) {
+		case ASCII:
+			if (c >= 'a' && c <= 'z')
+				return Symbol.getCharClass(c, c, (char) (c - 'a' + 'A'), (char) (c - 'a' + 'A'));
+			else if (c >= 'A' && c <= 'Z')
+				return Symbol.getCharClass(c, c, (char) (c - 'A' + 'a'), (char) (c - 'A' + 'a'));
+			else
+				return Symbol.getSymbol(c);
+		case SIMPLE:
+			char[] group = SimpleGroups.groups.get(simpleFold(c));
+			if (group == null)
+				return Symbol.getSymbol(c);
+			char[] bounds = new char[2 * group.length];
+			for (int i = 0; i < group.length; ++i) {
+				bounds[2 * i] = group[i];
+				bounds[2 * i + 1] = group[i];
+			}
+			return Symbol.getCharClass(bounds);
+		default:
+			return Symbol.getSymbol(c);
+		}
+	}
+	
+	/**
+	 * Folds all characters of the given string.
+	 * @param s
+	 * @return
+	 */
+	public String fold(String s) {
+		if (this == NONE)
+			return s;
+		char[] chars = s.toCharArray();
+		for (int i = 0; i < chars.length; ++i) {
+			chars[i] = fold(chars[i]);
+		}
+		return new String(chars);
+	}
+
+}
@@ -0,0 +1,264 @@
+package kenni;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import kenni.BaseAutomaton.State;
+
+/**
+ * <p>Immutable copy of an automaton flattened into int arrays, meant for fast simulation
+ * by SparseSimulator. States are renumbered densely from 0. Characters are mapped to the
+ * classes of an AlphabetPartition of the automaton, transitions of each state are sorted
+ * by class, so that the targets over one class form a consecutive range.</p>
+ * <p>
+ * The states are numbered by identity, so the automaton may report states of other automata
+ * (e.g. UnionAutomatonSim reports the states of its branches), whose indices collide.
+ * The original state of each compact state is returned by {@link #getOriginalState(int)}.</p>
+ * <p>
+ * Wild card and epsilon transitions are kept in separate lists, so that they are not
+ * copied for every class. Character class transitions are expanded to all alphabet classes
+ * they contain.</p>
+ * @author Libor
+ *
+ */
+public class CompactNfa {
+	/* Private fields */
+	private final int stateCount;
+	private final int startState;
+	private final boolean[] finalStates;
+	// The original state of each compact state
+	private final State[] originalStates;
+	private final AlphabetPartition alphabet;
+	// Transitions of state s over classes are transClass/transTarget[transStart[s], transStart[s + 1])
+	private final int[] transStart;
+	private final int[] transClass;
+	private final int[] transTarget;
+	private final int[] wildStart;
+	private final int[] wildTarget;
+	private final int[] epsilonStart;
+	private final int[] epsilonTarget;
+	
+	/* Constructors and factory methods */
+	
+	/**
+	 * Creates the flattened copy of the given automaton. The automaton is not changed.
+	 * @param aut
+	 */
+	public CompactNfa(BaseAutomaton aut) {
+		// Renumber the states
+		final StateMap<Integer> compactIndex = new StateMap<>(aut);
+		final ArrayList<State> original = new ArrayList<>();
+		aut.actionOverStates((State state) -> {
+			// A state may be reported more than once, e.g. by a union with the same branch twice
+			if (compactIndex.get(state) == null) {
+				compactIndex.put(state, original.size());
+				original.add(state);
+			}
+		});
+		stateCount = original.size();
+		originalStates = original.toArray(new State[stateCount]);
+		startState = aut.getStartState() == null ? -1 : compactIndex.get(aut.getStartState());
+		finalStates = new boolean[stateCount];
+		aut.actionOverFinalStates((State state) -> finalStates[compactIndex.get(state)] = true);
+		alphabet = AlphabetPartition.create(aut);
+		final int classCount = alphabet.getClassCount();
+		
+		// Count the transitions of each kind per state
+		final int[] transCount = new int[stateCount + 1];
+		final int[] wildCount = new int[stateCount + 1];
+		final int[] epsilonCount = new int[stateCount + 1];
+		aut.actionOverTransitions((State source, Symbol symbol, State target) -> {
+			int s = compactIndex.get(source);
+			if (symbol == Symbol.EPSILON)
+				++epsilonCount[s];
+			else if (symbol == Symbol.WILD_CARD)
+				++wildCount[s];
+			else if (symbol != Symbol.COMPLEMENT)
+				transCount[s] += countClasses(symbol, classCount);
+		});
+		transStart = prefixSums(transCount);
+		wildStart = prefixSums(wildCount);
+		epsilonStart = prefixSums(epsilonCount);
+		
+		// Fill the transitions
+		transClass = new int[transStart[stateCount]];
+		transTarget = new int[transStart[stateCount]];
+		wildTarget = new int[wildStart[stateCount]];
+		epsilonTarget = new int[epsilonStart[stateCount]];
+		final int[] transFill = Arrays.copyOf(transStart, stateCount);
+		final int[] wildFill = Arrays.copyOf(wildStart, stateCount);
+		final int[] epsilonFill = Arrays.copyOf(epsilonStart, stateCount);
+		aut.actionOverTransitions((State source, Symbol symbol, State target) -> {
+			int s = compactIndex.get(source);
+			int t = compactIndex.get(target);
+			if (symbol == Symbol.EPSILON)
+				epsilonTarget[epsilonFill[s]++] = t;
+			else if (symbol == Symbol.WILD_CARD)
+				wildTarget[wildFill[s]++] = t;
+			else if (symbol != Symbol.COMPLEMENT) {
+				for (int cls = 0; cls < classCount; ++cls) {
+					if (symbol.matches(alphabet.getRepresentative(cls))) {
+						transClass[transFill[s]] = cls;
+						transTarget[transFill[s]++] = t;
+					}
+				}
+			}
+		});
+		sortByClass();
+	}
+	
+	/* Private methods */
+	
+	private int countClasses(Symbol symbol, int classCount) {
+		if (!symbol.isCharClass())
+			return 1;
+		int result = 0;
+		for (int cls = 0; cls < classCount; ++cls) {
+			if (symbol.matches(alphabet.getRepresentative(cls)))
+				++result;
+		}
+		return result;
+	}
+	
+	private static int[] prefixSums(int[] counts) {
+		int[] result = new int[counts.length];
+		int sum = 0;
+		for (int i = 0; i < counts.length; ++i) {
+			result[i] = sum;
+			sum += counts[i];
+		}
+		return result;
+	}
+	
+	/* Sorts the transitions of each state by class, insertion sort is enough for short rows */
+	private void sortByClass() {
+		for (int s = 0; s < stateCount; ++s) {
+			for (int i = transStart[s] + 1; i < transStart[s + 1]; ++i) {
+				int cls = transClass[i];
+				int target = transTarget[i];
+				int j = i - 1;
+				while (j >= transStart[s] && transClass[j] > cls) {
+					transClass[j + 1] = transClass[j];
+					transTarget[j + 1] = transTarget[j];
+					--j;
+				}
+				transClass[j + 1] = cls;
+				transTarget[j + 1] = target;
+			}
+		}
+	}
+	
+	/* Package private methods used by the simulator */
+	
+	/* Returns the first transition of the state over the class, or transStart[state + 1] */
+	int firstTransition(int state, int cls) {
+		int lo = transStart[state];
+		int hi = transStart[state + 1];
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (transClass[mid] < cls)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+	
+	int transitionEnd(int state) {
+		return transStart[state + 1];
+	}
+	
+	int transitionClass(int transition) {
+		return transClass[transition];
+	}
+	
+	int transitionTarget(int transition) {
+		return transTarget[transition];
+	}
+	
+	int wildStart(int state) {
+		return wildStart[state];
+	}
+	
+	int wildEnd(int state) {
+		return wildStart[state + 1];
+	}
+	
+	int wildTarget(int transition) {
+		return wildTarget[transition];
+	}
+	
+	int epsilonStart(int state) {
+		return epsilonStart[state];
+	}
+	
+	int epsilonEnd(int state) {
+		return epsilonStart[state + 1];
+	}
+	
+	int epsilonTarget(int transition) {
+		return epsilonTarget[transition];
+	}
+	
+	/* Public methods */
+	
+	public int getStateCount() {
+		return stateCount;
+	}
+	
+	/**
+	 * Returns the compact index of the start state, or -1 if there is none.
+	 * @return
+	 */
+	public int getStartState() {
+		return startState;
+	}
+	
+	public boolean isFinal(int state) {
+		return finalStates[state];
+	}
+	
+	/**
+	 * Returns the state of the original automaton, that the given compact state stands for.
+	 * @param state Compact index of the state.
+	 * @return
+	 */
+	public State getOriginalState(int state) {
+		return originalStates[state];
+	}
+	
+	/**
+	 * Returns State.index of the original state of the given compact state. The index
+	 * identifies the state only if it belongs to the original automaton itself, otherwise
+	 * use getOriginalState(int).
+	 * @param state Compact index of the state.
+	 * @return
+	 */
+	public int getOriginalIndex(int state) {
+		return originalStates[state].index;
+	}
+	
+	public AlphabetPartition getAlphabet() {
+		return alphabet;
+	}
+	
+	/**
+	 * Returns the approximate number of bytes occupied by the arrays of this automaton,
+	 * including the class table of its alphabet partition.
+	 * @return
+	 */
+	public long getMemoryFootprint() {
+		return stateCount + 4L * (originalStates.length + transStart.length + transClass.length
+				+ transTarget.length + wildStart.length + wildTarget.length + epsilonStart.length
+				+ epsilonTarget.length) + 2L * alphabet.getAlphabetSize();
+	}
+	
+	/**
+	 * Returns the number of all transitions, where transitions over character classes are
+	 * counted once per alphabet class.
+	 * @return
+	 */
+	public int getTransitionCount() {
+		return transTarget.length + wildTarget.length + epsilonTarget.length;
+	}
+}
@@ -0,0 +1,488 @@
+package kenni;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * <p>Represents an immutable deterministic finite automaton stored as a dense transition
+ * table. Rows of the table are indexed by states and columns by the classes of an
+ * AlphabetPartition, so that the table stays small even for large alphabets.</p>
+ * <p>
+ * States are numbered from 0, which is the start state. A missing transition leads to
+ * a dead state, that is represented by -1 and not stored in the table. State objects of the
+ * BaseAutomaton interface are created only when they are accessed.</p>
+ * @author Libor
+ *
+ */
+public class DeterministicAutomaton extends BaseAutomaton {
+	/* Static fields and constants */
+	/** Represents the dead state, from which no final state is reachable. */
+	public static final int DEAD = -1;
+	
+	/* Private fields */
+	private final String name;
+	private final AlphabetPartition alphabet;
+	private final int classCount;
+	private final int stateCount;
+	// table[state * classCount + cls] is the target of state over class cls
+	private final int[] table;
+	private final BitSet finalStates;
+	// Maps ordinals of the class symbols to classes
+	private final HashMap<Integer, Integer> symbolToClass = new HashMap<>();
+	
+	/* Constructors and factory methods */
+	
+	private DeterministicAutomaton(String name, AlphabetPartition alphabet, int stateCount,
+			int[] table, BitSet finalStates)
+	{
+		this.name = name == null ? "" : name;
+		this.alphabet = alphabet;
+		this.classCount = alphabet.getClassCount();
+		this.stateCount = stateCount;
+		this.table = table;
+		this.finalStates = finalStates;
+		for (int cls = 0; cls < classCount; ++cls) {
+			symbolToClass.put(alphabet.getClassSymbol(cls).ordinal, cls);
+		}
+	}
+	
+	/**
+	 * Creates a deterministic automaton accepting the same language as the given one using
+	 * the subset construction. New states are numbered in the breadth first order.
+	 * @param name The name of the result.
+	 * @param aut The automaton to be determinized. Its state is not changed.
+	 * @return
+	 */
+	public static DeterministicAutomaton determinize(String name, BaseAutomaton aut) {
+		return determinize(name, aut, Integer.MAX_VALUE, new ArrayList<>());
+	}
+	
+	/* The subset construction, that stops when the result would have more than maxStates
+	 * states. Fills subsets by the subsets of the states of aut represented by the new states.
+	 * Returns null if the limit has been exceeded. */
+	static DeterministicAutomaton determinize(String name, BaseAutomaton aut, int maxStates,
+			ArrayList<Set<State>> subsets)
+	{
+		AlphabetPartition alphabet = AlphabetPartition.create(aut);
+		int classCount = alphabet.getClassCount();
+		
+		HashMap<Set<State>, Integer> subsetToState = new HashMap<>();
+		ArrayDeque<Set<State>> queue = new ArrayDeque<>();
+		int[] table = new int[16 * classCount];
+		BitSet finalStates = new BitSet();
+		
+		subsets.clear();
+		Set<State> start = new HashSet<>(aut.getEpsilonClosure(aut.getStartState()));
+		subsetToState.put(start, 0);
+		subsets.add(start);
+		queue.add(start);
+		while (!queue.isEmpty()) {
+			Set<State> subset = queue.poll();
+			int source = subsetToState.get(subset);
+			if (containsFinal(aut, subset))
+				finalStates.set(source);
+			if ((source + 1) * classCount > table.length)
+				table = Arrays.copyOf(table, 2 * table.length);
+			for (int cls = 0; cls < classCount; ++cls) {
+				Collection<State> follow = aut.getTransition(subset, alphabet.getRepresentative(cls));
+				if (follow.isEmpty()) {
+					table[source * classCount + cls] = DEAD;
+					continue;
+				}
+				Set<State> target = new HashSet<>(aut.getEpsilonClosure(follow));
+				Integer targetIndex = subsetToState.get(target);
+				if (targetIndex == null) {
+					if (subsets.size() == maxStates)
+						return null;
+					targetIndex = subsets.size();
+					subsetToState.put(target, targetIndex);
+					subsets.add(target);
+					queue.add(target);
+				}
+				table[source * classCount + cls] = targetIndex;
+			}
+		}
+		return new DeterministicAutomaton(name, alphabet, subsets.size(),
+				Arrays.copyOf(table, subsets.size() * classCount), finalStates);
+	}
+	
+	/**
+	 * Determinizes the given automaton like {@link #determinize(String, BaseAutomaton)}, but
+	 * computes the transitions in parallel in the common ForkJoinPool. The result is the same
+	 * as the result of the sequential construction, including the numbering of the states.
+	 * @param name The name of the result.
+	 * @param aut The automaton to be determinized. Its state is not changed and it has to be
+	 * safe to read it from several threads, which holds for all automata of this package.
+	 * @return
+	 */
+	public static DeterministicAutomaton determinizeParallel(String name, BaseAutomaton aut) {
+		return determinizeParallel(name, aut, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Determinizes the given automaton in parallel in the given pool. See
+	 * {@link #determinizeParallel(String, BaseAutomaton)}.
+	 * @param name
+	 * @param aut
+	 * @param pool
+	 * @return
+	 */
+	public static DeterministicAutomaton determinizeParallel(String name, BaseAutomaton aut, ForkJoinPool pool) {
+		AlphabetPartition alphabet = AlphabetPartition.create(aut);
+		int classCount = alphabet.getClassCount();
+		
+		// Equal subsets found by different workers are replaced by a single canonical instance,
+		// so that the numbering can compare them by identity
+		ConcurrentHashMap<Set<State>, Set<State>> canonicalSets = new ConcurrentHashMap<>();
+		IdentityHashMap<Set<State>, Integer> subsetToState = new IdentityHashMap<>();
+		ArrayList<Set<State>> subsets = new ArrayList<>();
+		int[] table = new int[16 * classCount];
+		BitSet finalStates = new BitSet();
+		
+		Set<State> start = new HashSet<>(aut.getEpsilonClosure(aut.getStartState()));
+		canonicalSets.put(start, start);
+		subsetToState.put(start, 0);
+		subsets.add(start);
+		// The states are processed level by level of the breadth first search. The targets of
+		// a level are computed in parallel and then numbered in the order of the sequential
+		// construction, i.e. by the source and then by the class.
+		int levelStart = 0;
+		while (levelStart < subsets.size()) {
+			int levelEnd = subsets.size();
+			Set<State>[] targets = newSetArray((levelEnd - levelStart) * classCount);
+			pool.invoke(new SubsetTask(aut, alphabet, subsets, canonicalSets, levelStart,
+					levelStart, levelEnd, targets));
+			for (int source = levelStart; source < levelEnd; ++source) {
+				if (containsFinal(aut, subsets.get(source)))
+					finalStates.set(source);
+				while ((source + 1) * classCount > table.length)
+					table = Arrays.copyOf(table, 2 * table.length);
+				for (int cls = 0; cls < classCount; ++cls) {
+					Set<State> target = targets[(source - levelStart) * classCount + cls];
+					if (target == null) {
+						table[source * classCount + cls] = DEAD;
+						continue;
+					}
+					Integer targetIndex = subsetToState.get(target);
+					if (targetIndex == null) {
+						targetIndex = subsets.size();
+						subsetToState.put(target, targetIndex);
+						subsets.add(target);
+					}
+					table[source * classCount + cls] = targetIndex;
+				}
+			}
+			levelStart = levelEnd;
+		}
+		return new DeterministicAutomaton(name, alphabet, subsets.size(),
+				Arrays.copyOf(table, subsets.size() * classCount), finalStates);
+	}
+	
+	/* Private methods */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static Set<State>[] newSetArray(int length) {
+		return new Set[length];
+	}
+	
+	private static boolean containsFinal(BaseAutomaton aut, Collection<State> subset) {
+		for (State state : subset) {
+			if (aut.isFinalState(state))
+				return true;
+		}
+		return false;
+	}
+	
+	/* Returns the index of the given state, or DEAD if it is not a state of this automaton */
+	private int indexOf(State state) {
+		if (state == null || state.parent != this || state.index >= stateCount)
+			return DEAD;
+		return state.index;
+	}
+	
+	private Collection<State> singleton(int state) {
+		HashSet<State> result = new HashSet<>();
+		if (state != DEAD)
+			result.add(stateAt(state));
+		return result;
+	}
+	
+	/* Public methods working with state indices */
+	
+	/**
+	 * Returns the target of the given state over the character c.
+	 * @param state Index of the source state.
+	 * @param c
+	 * @return Index of the target state or DEAD.
+	 */
+	public int next(int state, char c) {
+		return table[state * classCount + alphabet.classOf(c)];
+	}
+	
+	/**
+	 * Returns the target of the given state over the class cls of the alphabet partition.
+	 * @param state Index of the source state.
+	 * @param cls
+	 * @return Index of the target state or DEAD.
+	 */
+	public int nextByClass(int state, int cls) {
+		return table[state * classCount + cls];
+	}
+	
+	public boolean isFinal(int state) {
+		return state != DEAD && finalStates.get(state);
+	}
+	
+	/**
+	 * Returns the index of the start state, which is always 0.
+	 */
+	public int getStartIndex() {
+		return 0;
+	}
+	
+	public int getStateCount() {
+		return stateCount;
+	}
+	
+	public AlphabetPartition getAlphabet() {
+		return alphabet;
+	}
+	
+	/**
+	 * Returns the approximate number of bytes occupied by the transition table, the final
+	 * states and the class table of the alphabet partition.
+	 * @return
+	 */
+	public long getMemoryFootprint() {
+		return 4L * table.length + finalStates.size() / 8 + 2L * alphabet.getAlphabetSize();
+	}
+	
+	/**
+	 * Determines whether this automaton accepts the given string.
+	 * @param sentence
+	 * @return
+	 */
+	public boolean accepts(CharSequence sentence) {
+		int state = 0;
+		for (int i = 0; i < sentence.length() && state != DEAD; ++i) {
+			state = next(state, sentence.charAt(i));
+		}
+		return isFinal(state);
+	}
+	
+	/**
+	 * Runs this automaton over the text read backwards, starting right before the position end.
+	 * Meant for automata of reversed languages, which are used for finding where a match
+	 * ending at the given position starts. The text is read until the automaton dies, so for
+	 * automata accepting arbitrarily long words it may be read up to its beginning.
+	 * @param text
+	 * @param end
+	 * @return The lowest position start, such that text[start, end) read backwards is accepted,
+	 * or -1 if there is no such position.
+	 */
+	public int matchBackward(CharSequence text, int end) {
+		int result = isFinal(0) ? end : -1;
+		int state = 0;
+		for (int i = end - 1; i >= 0; --i) {
+			state = next(state, text.charAt(i));
+			if (state == DEAD)
+				break;
+			if (isFinal(state))
+				result = i;
+		}
+		return result;
+	}
+	
+	/* Nested classes */
+	
+	/* Computes the canonical targets of the subsets from the range [from, to) over all classes.
+	 * The target of subsets[source] over cls is stored into
+	 * targets[(source - levelStart) * classCount + cls], null stands for the dead state. */
+	private static class SubsetTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		// Ranges of at most this number of subsets are not split
+		private static final int THRESHOLD = 4;
+		private final BaseAutomaton aut;
+		private final AlphabetPartition alphabet;
+		private final ArrayList<Set<State>> subsets;
+		private final ConcurrentHashMap<Set<State>, Set<State>> canonicalSets;
+		private final int levelStart;
+		private final int from;
+		private final int to;
+		private final Set<State>[] targets;
+		
+		SubsetTask(BaseAutomaton aut, AlphabetPartition alphabet, ArrayList<Set<State>> subsets,
+				ConcurrentHashMap<Set<State>, Set<State>> canonicalSets, int levelStart,
+				int from, int to, Set<State>[] targets)
+		{
+			this.aut = aut;
+			this.alphabet = alphabet;
+			this.subsets = subsets;
+			this.canonicalSets = canonicalSets;
+			this.levelStart = levelStart;
+			this.from = from;
+			this.to = to;
+			this.targets = targets;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from > THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new SubsetTask(aut, alphabet, subsets, canonicalSets, levelStart, from, middle, targets),
+						new SubsetTask(aut, alphabet, subsets, canonicalSets, levelStart, middle, to, targets));
+				return;
+			}
+			int classCount = alphabet.getClassCount();
+			for (int source = from; source < to; ++source) {
+				Set<State> subset = subsets.get(source);
+				for (int cls = 0; cls < classCount; ++cls) {
+					Collection<State> follow = aut.getTransition(subset, alphabet.getRepresentative(cls));
+					if (follow.isEmpty())
+						continue;
+					Set<State> target = new HashSet<>(aut.getEpsilonClosure(follow));
+					Set<State> canonical = canonicalSets.putIfAbsent(target, target);
+					targets[(source - levelStart) * classCount + cls] = canonical != null ? canonical : target;
+				}
+			}
+		}
+	}
+	
+	/* BaseAutomaton implementation */
+	
+	@Override
+	public String getName() {
+		return name;
+	}
+	
+	@Override
+	public State getStartState() {
+		return stateAt(0);
+	}
+	
+	@Override
+	public int getStateIndexBound() {
+		return stateCount;
+	}
+	
+	@Override
+	public boolean isStartState(State state) {
+		return indexOf(state) == 0;
+	}
+	
+	@Override
+	public boolean isFinalState(State state) {
+		return isFinal(indexOf(state));
+	}
+	
+	@Override
+	public Collection<State> getEpsilonClosure(Collection<State> stateSet) {
+		HashSet<State> result = new HashSet<>();
+		for (State state : stateSet) {
+			if (indexOf(state) != DEAD)
+				result.add(state);
+		}
+		return result;
+	}
+	
+	@Override
+	public Collection<State> getEpsilonClosure(State state) {
+		return singleton(indexOf(state));
+	}
+	
+	@Override
+	public Collection<State> getTransition(State state, Symbol symbol) {
+		int source = indexOf(state);
+		Integer cls = symbol == null ? null : symbolToClass.get(symbol.ordinal);
+		if (source == DEAD || cls == null)
+			return new HashSet<>();
+		return singleton(nextByClass(source, cls));
+	}
+	
+	@Override
+	public Collection<State> getTransition(Collection<State> stateSet, Symbol symbol) {
+		HashSet<State> result = new HashSet<>();
+		for (State state : stateSet) {
+			result.addAll(getTransition(state, symbol));
+		}
+		return result;
+	}
+	
+	@Override
+	public Collection<State> getTransition(State state, char c) {
+		int source = indexOf(state);
+		if (source == DEAD)
+			return new HashSet<>();
+		return singleton(next(source, c));
+	}
+	
+	@Override
+	public Collection<State> getTransition(Collection<State> stateSet, char c) {
+		HashSet<State> result = new HashSet<>();
+		for (State state : stateSet) {
+			int source = indexOf(state);
+			if (source != DEAD && next(source, c) != DEAD)
+				result.add(stateAt(next(source, c)));
+		}
+		return result;
+	}
+	
+	@Override
+	public void actionOverStates(Consumer<State> action) {
+		for (int state = 0; state < stateCount; ++state) {
+			action.accept(stateAt(state));
+		}
+	}
+	
+	@Override
+	public void actionOverFinalStates(Consumer<State> action) {
+		for (int state = finalStates.nextSetBit(0); state >= 0; state = finalStates.nextSetBit(state + 1)) {
+			action.accept(stateAt(state));
+		}
+	}
+	
+	@Override
+	public void actionOverTransitions(TriConsumer<State, Symbol, State> action) {
+		for (int state = 0; state < stateCount; ++state) {
+			for (int cls = 0; cls < classCount; ++cls) {
+				int target = nextByClass(state, cls);
+				if (target != DEAD)
+					action.accept(stateAt(state), alphabet.getClassSymbol(cls), stateAt(target));
+			}
+		}
+	}
+	
+	@Override
+	public String dump() {
+		StringBuilder sb = new StringBuilder();
+		for (int state = 0; state < stateCount; ++state) {
+			sb.append(System.lineSeparator());
+			if (isFinal(state) && state == 0)
+				sb.append("<>");
+			else if (isFinal(state))
+				sb.append("<-");
+			else if (state == 0)
+				sb.append("->");
+			else
+				sb.append("  ");
+			sb.append(state).append(":: ");
+			for (int cls = 0; cls < classCount; ++cls) {
+				int target = nextByClass(state, cls);
+				if (target != DEAD)
+					sb.append("(").append(alphabet.getClassSymbol(cls)).append(": ")
+						.append(target).append(" ) ");
+			}
+		}
+		return sb.toString();
+	}
+}
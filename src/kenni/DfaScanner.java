@@ -0,0 +1,20 @@
+package kenni;
+
+/**
+ * Runs a deterministic automaton over a text until it enters one of its stop states.
+ * Implemented by the classes generated by ScannerCompiler and by its table driven fallback.
+ * @author Libor
+ *
+ */
+interface DfaScanner {
+	/**
+	 * Starts in the given state right before text[position] and reads the text until a stop
+	 * state or the dead state is entered, or until the end of the text.
+	 * @param text
+	 * @param position
+	 * @param state
+	 * @return The position after the last read character in the upper 32 bits and the state
+	 * entered last (or DeterministicAutomaton.DEAD) in the lower 32 bits.
+	 */
+	long scan(String text, int position, int state);
+}
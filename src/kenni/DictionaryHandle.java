@@ -0,0 +1,245 @@
+package kenni;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import kenni.Sffeco.MatchMode;
+
+/**
+ * <p>Mutable dictionary of patterns, that can be changed while it is being searched.
+ * Each change creates a new immutable snapshot (a Sffeco over the current patterns), which
+ * is published atomically. Searches read the current snapshot once and use it till they
+ * finish, so they never block and never see a partially built dictionary.</p>
+ * <p>
+ * Patterns are identified by IDs assigned when they are added, these do not change when
+ * other patterns are removed. Search results report pattern IDs instead of indices.
+ * The search automaton of each pattern is compiled only once, when the pattern is added,
+ * a new snapshot only joins the already compiled automata. With Engine.AUTO the engine of
+ * a snapshot is planned over the joined automaton, so it is always one of the engines using
+ * it. Engines chosen explicitly, which do not work over the automaton (e.g. SET_HORSPOOL),
+ * are built from all the patterns for each snapshot. Changes made by one call of addAll or
+ * removeAll are published as one snapshot.</p>
+ * @author Libor
+ *
+ */
+public class DictionaryHandle {
+	/* Private fields */
+	private final Sffeco.Options options;
+	private final AtomicReference<Snapshot> current;
+	// The following fields are guarded by this
+	private final ArrayList<String> patterns = new ArrayList<>();
+	private final ArrayList<Integer> ids = new ArrayList<>();
+	private final ArrayList<BaseAutomaton> compiled = new ArrayList<>();
+	private int nextID = 0;
+	private long version = 0;
+	
+	/**
+	 * Immutable version of the dictionary.
+	 */
+	public static class Snapshot {
+		private final Sffeco dictionary;
+		// Maps pattern indices of the dictionary to pattern IDs
+		private final int[] ids;
+		private final long version;
+		private final ThreadLocal<BasicSimulator> simulators;
+		
+		private Snapshot(Sffeco dictionary, int[] ids, long version) {
+			this.dictionary = dictionary;
+			this.ids = ids;
+			this.version = version;
+			this.simulators = ThreadLocal.withInitial(() -> dictionary.createSimulator());
+		}
+		
+		/**
+		 * Searches the given text using the given match semantics, see
+		 * {@link Sffeco#search(String, MatchMode)}. It is safe to call this method from
+		 * several threads at once.
+		 * @param text
+		 * @param mode
+		 * @return An ArrayList of pairs of the pattern ID and the end position of each match.
+		 */
+		public ArrayList<Pair<Integer>> search(String text, MatchMode mode) {
+			BasicSimulator simulator = dictionary.needsSimulator(mode) ? simulators.get() : null;
+			ArrayList<Pair<Integer>> result = new ArrayList<>();
+			for (Pair<Integer> match : dictionary.search(text, mode, simulator))
+				result.add(new Pair<Integer>(ids[match.first], match.second));
+			return result;
+		}
+		
+		public ArrayList<Pair<Integer>> search(String text) {
+			return search(text, MatchMode.LONGEST_AT_END);
+		}
+		
+		/**
+		 * Returns the ID of the pattern with the given index in getDictionary().
+		 * @param index
+		 * @return
+		 */
+		public int getPatternID(int index) {
+			return ids[index];
+		}
+		
+		/**
+		 * Returns the dictionary of this snapshot. Its pattern indices are not pattern IDs,
+		 * see getPatternID(int).
+		 * @return
+		 */
+		public Sffeco getDictionary() {
+			return dictionary;
+		}
+		
+		/**
+		 * Returns the number of changes made to the handle before this snapshot was published.
+		 * @return
+		 */
+		public long getVersion() {
+			return version;
+		}
+	}
+	
+	/* Constructors */
+	
+	/**
+	 * Creates a handle of a dictionary initially holding the given patterns, they get IDs
+	 * from 0 in the given order.
+	 * @param options Options of the dictionary, they are copied.
+	 * @param patterns
+	 */
+	public DictionaryHandle(Sffeco.Options options, String... patterns) {
+		this.options = options.copy();
+		this.current = new AtomicReference<>();
+		addAll(patterns);
+	}
+	
+	public DictionaryHandle(String... patterns) {
+		this(new Sffeco.Options(), patterns);
+	}
+	
+	/* Private methods */
+	
+	/* Builds a new snapshot from the current patterns and publishes it. The caller holds the lock. */
+	private void publish() {
+		String[] patternArray = patterns.toArray(new String[patterns.size()]);
+		BaseAutomaton[] compiledArray = compiled.toArray(new BaseAutomaton[compiled.size()]);
+		int[] idArray = new int[ids.size()];
+		for (int i = 0; i < idArray.length; ++i)
+			idArray[i] = ids.get(i);
+		Sffeco dictionary = new Sffeco(options, patternArray, compiledArray);
+		current.set(new Snapshot(dictionary, idArray, version));
+	}
+	
+	/* Returns the index of the pattern with the given ID, or -1. The caller holds the lock. */
+	private int indexOf(int patternID) {
+		// IDs are increasing, because patterns are always appended
+		int lo = 0;
+		int hi = ids.size() - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int id = ids.get(mid);
+			if (id < patternID)
+				lo = mid + 1;
+			else if (id > patternID)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+	
+	/* Public methods */
+	
+	/**
+	 * Adds the given pattern and publishes the new snapshot.
+	 * @param pattern
+	 * @return The ID of the added pattern.
+	 */
+	public int add(String pattern) {
+		return addAll(pattern)[0];
+	}
+	
+	/**
+	 * Adds all the given patterns and publishes one new snapshot.
+	 * @param newPatterns
+	 * @return The IDs of the added patterns.
+	 */
+	public synchronized int[] addAll(String... newPatterns) {
+		int[] result = new int[newPatterns.length];
+		for (int i = 0; i < newPatterns.length; ++i) {
+			if (newPatterns[i] == null)
+				throw new NullPointerException("Pattern must not be null");
+			patterns.add(newPatterns[i]);
+			compiled.add(Sfoeco.createSearchAutomaton(newPatterns[i], "", options.getCaseFolding()));
+			ids.add(nextID);
+			result[i] = nextID++;
+		}
+		++version;
+		publish();
+		return result;
+	}
+	
+	/**
+	 * Removes the pattern with the given ID and publishes the new snapshot.
+	 * @param patternID
+	 * @return True if there was such pattern.
+	 */
+	public boolean remove(int patternID) {
+		return removeAll(patternID) > 0;
+	}
+	
+	/**
+	 * Removes the patterns with the given IDs and publishes one new snapshot, if any of them
+	 * has been removed.
+	 * @param patternIDs
+	 * @return The number of removed patterns.
+	 */
+	public synchronized int removeAll(int... patternIDs) {
+		int removed = 0;
+		for (int id : patternIDs) {
+			int index = indexOf(id);
+			if (index >= 0) {
+				patterns.remove(index);
+				compiled.remove(index);
+				ids.remove(index);
+				++removed;
+			}
+		}
+		if (removed > 0) {
+			++version;
+			publish();
+		}
+		return removed;
+	}
+	
+	/**
+	 * Returns the current snapshot. Searching the same snapshot several times gives
+	 * consistent results regardless of later changes.
+	 * @return
+	 */
+	public Snapshot getSnapshot() {
+		return current.get();
+	}
+	
+	/**
+	 * Searches the given text in the current snapshot, see {@link Snapshot#search(String, MatchMode)}.
+	 * @param text
+	 * @param mode
+	 * @return
+	 */
+	public ArrayList<Pair<Integer>> search(String text, MatchMode mode) {
+		return current.get().search(text, mode);
+	}
+	
+	public ArrayList<Pair<Integer>> search(String text) {
+		return search(text, MatchMode.LONGEST_AT_END);
+	}
+	
+	/**
+	 * Returns the pattern with the given ID.
+	 * @param patternID
+	 * @return The pattern or null if there is no such pattern.
+	 */
+	public synchronized String getPattern(int patternID) {
+		int index = indexOf(patternID);
+		return index < 0 ? null : patterns.get(index);
+	}
+}
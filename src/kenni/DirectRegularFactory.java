@@ -1,12 +1,13 @@
 package kenni;
 
-import java.util.HashMap;
 import java.util.function.Consumer;
 import kenni.BaseAutomaton.State;
 
 /**
  * Implements a factory for automatons that are results of regular operations.
  * This factory directly creates its objects as mutable Automatons, which it returns.
+ * The factory returned by {@link #getTrimming()} additionally trims its results, see
+ * {@link Automaton#trim()}.
  * @author Libor
  *
  */
@@ -14,73 +15,115 @@ public class DirectRegularFactory implements IRegularFactory {
 	
 	/* Singleton pattern implementation */
 	private static class Holder {
-		private static final DirectRegularFactory singleton = new DirectRegularFactory();
+		private static final DirectRegularFactory singleton = new DirectRegularFactory(false);
+		private static final DirectRegularFactory trimming = new DirectRegularFactory(true);
 	}
 	
-	private DirectRegularFactory() { }
+	/* Private fields */
+	// Whether the results are trimmed before they are returned
+	private final boolean trim;
+	
+	private DirectRegularFactory(boolean trim) {
+		this.trim = trim;
+	}
 	
 	public static DirectRegularFactory get() {
 		return Holder.singleton;
 	}
 	
+	/**
+	 * Returns the factory, that removes the unreachable and dead states from its results.
+	 * The languages of the results are the same as with {@link #get()}, but the states
+	 * reported to the BeforeInsertedEvent consumers need not be contained in the result.
+	 * @return
+	 */
+	public static DirectRegularFactory getTrimming() {
+		return Holder.trimming;
+	}
+	
+	public boolean isTrimming() {
+		return trim;
+	}
+	
 	/* Private methods */
-	/* Transform the source state, call consumer, insert the state */
+	/* Trims the result, if this factory is trimming */
+	private Automaton finish(Automaton result) {
+		if (trim)
+			result.trim();
+		return result;
+	}
+	
+	/* Creates an anonymous state, calls the consumer and inserts the state. The state is
+	 * not named after the branch state, so that no names are generated and interned. */
 	private State insertStateIntoResult(Consumer<BeforeInsertedEvent> transState, boolean finalOnly,
 			BaseAutomaton branch, State branchState, int branchID, Automaton result)
 	{
-		State local = result.getAvailableState(branchState);
+		State local = result.touch();
 		if (transState != null && (!finalOnly || branch.isFinalState(branchState))) {
 			transState.accept(new BeforeInsertedEvent(result, local, branch, branchState, branchID));
 		}
-		result.insertState(local, false);
+		result.insertNewUnchecked(local);
 		
 		return local;
 	}
 	
+	/* Copies all states and transitions of the branch into result. States are always
+	 * created as new anonymous ones, so no names can clash. Transitions are inserted through
+	 * the bulk path of the result, as both of their states are known to be inserted already.
+	 * Returns the map from the branch states to the newly constructed ones.
+	 */
+	private StateMap<State> copyBranch(Consumer<BeforeInsertedEvent> transState,
+			boolean finalOnly, BaseAutomaton branch, int branchID, Automaton result)
+	{
+		final StateMap<State> oldToNew = new StateMap<>(branch);
+		branch.actionOverStates(new Consumer<BaseAutomaton.State>() {
+			@Override
+			public void accept(State state) {
+				oldToNew.put(state, insertStateIntoResult(transState, finalOnly, branch,
+						state, branchID, result));
+			}
+		});
+		branch.actionOverTransitions(new TriConsumer<BaseAutomaton.State, Symbol, BaseAutomaton.State>() {
+			@Override
+			public void accept(State source, Symbol symbol, State target) {
+				assert(oldToNew.get(source) != null);
+				assert(oldToNew.get(target) != null);
+				result.insertTransitionUnchecked(oldToNew.get(source), symbol, oldToNew.get(target));
+			}
+		});
+		return oldToNew;
+	}
+	
+	/* Returns the copy of the given branch state, or null if the state is null */
+	private static State newState(StateMap<State> oldToNew, State state) {
+		return state == null ? null : oldToNew.get(state);
+	}
+	
 	/* Regular operations implementation */
 	/* The idea is simple, just go over all transitions within auts and recreate
-	 * them inside result. The practice, however, is slighty more difficult, as
-	 * I do not allow two states with the same name exists in one automat. Therefore, it is
-	 * necessary to create copies of all states inside result and then create transitions.
+	 * them inside result. As states of different automata may have the same names,
+	 * the states are copied into result first (see copyBranch) and only then the transitions
+	 * are created.
 	 */
 	private Automaton constructUnion(String name, Consumer<BeforeInsertedEvent> transState,
 			boolean finalOnly, BaseAutomaton[] auts)
 	{
 		Automaton result = new Automaton(name);
 		// Insert states and transitions from all passed automatons
-		// These are maps from original states to newly constructed ones
-		final HashMap<State, State> oldToNew = new HashMap<>();
-		final HashMap<State, State> oldStartToNew = new HashMap<>();
-		// Remember current branch for IBranch implementation
+		// The newly constructed start states of the automata
+		final State[] newStarts = new State[auts.length];
 
 		for (int i = 0; i < auts.length; i++) {
-			oldToNew.clear();
-			// Create new states for actual branch
-			final int branchID = i;
-			auts[i].actionOverStates(new Consumer<BaseAutomaton.State>() {				
+			final StateMap<State> oldToNew = copyBranch(transState, finalOnly, auts[i], i, result);
+			auts[i].actionOverFinalStates(new Consumer<BaseAutomaton.State>() {
 				@Override
 				public void accept(State state) {
-					State insState = insertStateIntoResult(transState, finalOnly, auts[branchID],
-							state, branchID, result);
-					oldToNew.put(state, insState);
-					if (auts[branchID].isFinalState(state)) {
-						result.markAsFinal(insState);
-					}
+					assert(oldToNew.get(state) != null);
+					result.markAsFinal(oldToNew.get(state));
 				}
 			});
 			// Remember the start state
-			State start = auts[i].getStartState();
-			oldStartToNew.put(start, oldToNew.get(start));
-			
-			// Create transitions for actual branch
-			auts[i].actionOverTransitions(new TriConsumer<BaseAutomaton.State, Symbol, BaseAutomaton.State>() {
-				@Override
-				public void accept(State source, Symbol symbol, State target) {
-					assert(oldToNew.containsKey(source));
-					assert(oldToNew.containsKey(target));
-					result.insertTransition(oldToNew.get(source), symbol, oldToNew.get(target));
-				}
-			});
+			newStarts[i] = newState(oldToNew, auts[i].getStartState());
 		}
 		// Create new state and connect it with epsilon transitions to start states
 		// of all passed automata.
@@ -88,8 +131,8 @@ public class DirectRegularFactory implements IRegularFactory {
 		State init = result.touch("Init");
 		init = result.insertState(init, true);
 		result.setStartState(init);
-		for (BaseAutomaton aut : auts) {
-			result.insertTransition(init, Symbol.EPSILON, oldStartToNew.get(aut.getStartState()));
+		for (State start : newStarts) {
+			result.insertTransition(init, Symbol.EPSILON, start);
 		}
 		return result;
 	}
@@ -100,34 +143,12 @@ public class DirectRegularFactory implements IRegularFactory {
 		Automaton result = new Automaton(name);		
 		
 		// Insert states and transitions from all passed automatons
-		// This is a map from original states to newly constructed ones
-		final HashMap<State, State> oldToNew = new HashMap<>();
 		State lastStartState = null;
 		
 		for (int i = auts.length - 1; i >= 0; i--) {
-			oldToNew.clear();
-			
-			// Create new states for actual branch
 			final int branchID = i;
-			auts[i].actionOverStates(new Consumer<BaseAutomaton.State>() {				
-				@Override
-				public void accept(State state) {
-					State insState = insertStateIntoResult(transState, finalOnly, auts[branchID],
-							state, branchID, result);
-					oldToNew.put(state, insState);
-				}
-			});
-			
-			
-			// Create transitions for actual branch
-			auts[i].actionOverTransitions(new TriConsumer<BaseAutomaton.State, Symbol, BaseAutomaton.State>() {
-				@Override
-				public void accept(State source, Symbol symbol, State target) {
-					assert(oldToNew.containsKey(source));
-					assert(oldToNew.containsKey(target));
-					result.insertTransition(oldToNew.get(source), symbol, oldToNew.get(target));
-				}
-			});
+			// Map from original states to newly constructed ones
+			final StateMap<State> oldToNew = copyBranch(transState, finalOnly, auts[i], i, result);
 			
 			// Perform action on final states. If this is the last automaton
 			// Mark its states as final in result, otherwise connect them to the next
@@ -136,7 +157,7 @@ public class DirectRegularFactory implements IRegularFactory {
 				auts[i].actionOverFinalStates(new Consumer<BaseAutomaton.State>() {					
 					@Override
 					public void accept(State state) {
-						assert(oldToNew.containsKey(state));
+						assert(oldToNew.get(state) != null);
 						result.markAsFinal(oldToNew.get(state));
 					}
 				});
@@ -145,7 +166,7 @@ public class DirectRegularFactory implements IRegularFactory {
 				auts[i].actionOverFinalStates(new Consumer<BaseAutomaton.State>() {
 					@Override
 					public void accept(State state) {
-						assert(oldToNew.containsKey(state));
+						assert(oldToNew.get(state) != null);
 						assert(branchID < auts.length - 1);
 						result.insertTransition(oldToNew.get(state), Symbol.EPSILON,
 								start);
@@ -154,8 +175,11 @@ public class DirectRegularFactory implements IRegularFactory {
 			}
 			
 			// Remember the last start state
-			lastStartState = oldToNew.get(auts[i].getStartState());
+			lastStartState = newState(oldToNew, auts[i].getStartState());
 		}
+		// The start state of the first automaton is the start state of the result
+		if (lastStartState != null)
+			result.setStartState(lastStartState);
 		return result;
 	}
 	
@@ -164,31 +188,21 @@ public class DirectRegularFactory implements IRegularFactory {
 	{
 		Automaton result = new Automaton(name);
 	
-		aut.actionOverStates(new Consumer<BaseAutomaton.State>() {
-			@Override
-			public void accept(State state) {
-				final State local = insertStateIntoResult(transState, finalOnly, aut, state, 0, result);
-				// No clash in names since there is only one automaton
-				assert(local.id == state.id);
-				if (aut.isFinalState(state)) {
-					result.markAsFinal(local);
-				}
-			}
-		});
-		
 		// Copy the automaton
-		aut.actionOverTransitions(new TriConsumer<BaseAutomaton.State, Symbol, BaseAutomaton.State>() {
+		final StateMap<State> oldToNew = copyBranch(transState, finalOnly, aut, 0, result);
+		aut.actionOverFinalStates(new Consumer<BaseAutomaton.State>() {
 			@Override
-			public void accept(State source, Symbol symbol, State target) {
-				result.insertTransition(source, symbol, target);				
+			public void accept(State state) {
+				assert(oldToNew.get(state) != null);
+				result.markAsFinal(oldToNew.get(state));
 			}
 		});
 		
 		// New start state has to be created and connected with e-trans to
 		// the previous start state
-		final State start = result.getAvailableState(result.touch(aut.getStartState().id + "#"));
+		final State start = result.getAvailableState(result.touch(aut.getStartState().getId() + "#"));
 		result.insertState(start, false);
-		result.insertTransition(start, Symbol.EPSILON, result.touch(aut.getStartState().id));
+		result.insertTransition(start, Symbol.EPSILON, oldToNew.get(aut.getStartState()));
 		result.setStartState(start);
 		result.markAsFinal(start);
 		
@@ -204,11 +218,48 @@ public class DirectRegularFactory implements IRegularFactory {
 	}
 	
 	
+	private Automaton constructReversal(String name, BaseAutomaton aut) {
+		Automaton result = new Automaton(name);
+		
+		// Copy the states and reverse all the transitions
+		final StateMap<State> oldToNew = new StateMap<>(aut);
+		aut.actionOverStates(new Consumer<BaseAutomaton.State>() {
+			@Override
+			public void accept(State state) {
+				oldToNew.put(state, insertStateIntoResult(null, false, aut, state, 0, result));
+			}
+		});
+		aut.actionOverTransitions(new TriConsumer<BaseAutomaton.State, Symbol, BaseAutomaton.State>() {
+			@Override
+			public void accept(State source, Symbol symbol, State target) {
+				assert(oldToNew.get(source) != null);
+				assert(oldToNew.get(target) != null);
+				result.insertTransitionUnchecked(oldToNew.get(target), symbol, oldToNew.get(source));
+			}
+		});
+		
+		// The original start state becomes final and a new start state is connected with
+		// epsilon transitions to the original final states
+		final State start = result.insertState(result.touch("Rev"), true);
+		result.setStartState(start);
+		if (aut.getStartState() != null)
+			result.markAsFinal(oldToNew.get(aut.getStartState()));
+		aut.actionOverFinalStates(new Consumer<BaseAutomaton.State>() {
+			@Override
+			public void accept(State state) {
+				assert(oldToNew.get(state) != null);
+				result.insertTransition(start, Symbol.EPSILON, oldToNew.get(state));
+			}
+		});
+		return result;
+	}
+	
+	
 	/* IRegularFactory implementation */
 
 	@Override
 	public Automaton union(String resultName, BaseAutomaton... auts) {
-		return constructUnion(resultName, null, false, auts);
+		return finish(constructUnion(resultName, null, false, auts));
 	}
 
 	@Override
@@ -216,7 +267,7 @@ public class DirectRegularFactory implements IRegularFactory {
 			boolean finalOnly,
 			BaseAutomaton... auts)
 	{
-		return constructUnion(resultName, transState, finalOnly, auts);
+		return finish(constructUnion(resultName, transState, finalOnly, auts));
 	}
 
 	@Override
@@ -228,7 +279,7 @@ public class DirectRegularFactory implements IRegularFactory {
 	public BaseAutomaton concatenation(String resultName, Consumer<BeforeInsertedEvent> transState,
 			boolean finalOnly,
 			BaseAutomaton... auts) {
-		return constructConcat(resultName, transState, finalOnly, auts);
+		return finish(constructConcat(resultName, transState, finalOnly, auts));
 	}
 
 	@Override
@@ -240,7 +291,12 @@ public class DirectRegularFactory implements IRegularFactory {
 	public BaseAutomaton iteration(String resultName, Consumer<BeforeInsertedEvent> transState,
 			boolean finalOnly,
 			BaseAutomaton aut) {
-		return constructIteration(resultName, transState, finalOnly, aut);
+		return finish(constructIteration(resultName, transState, finalOnly, aut));
+	}
+	
+	@Override
+	public Automaton reversal(String resultName, BaseAutomaton aut) {
+		return finish(constructReversal(resultName, aut));
 	}
 
 }
@@ -0,0 +1,564 @@
+package kenni;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.function.Consumer;
+
+/**
+ * <p>Trie of a set of keywords stored in two int arrays (base and check), extended with
+ * failure links into an Aho-Corasick automaton. A node s has a child over the character
+ * code c iff check[base[s] + c] == s, so every transition of the trie is found in constant
+ * time and the whole dictionary occupies a few contiguous arrays regardless of the number
+ * of keywords. Characters are coded by the classes of an AlphabetPartition, which also
+ * takes care of case folding.</p>
+ * <p>
+ * Through the BaseAutomaton interface, the trie is seen as the nondeterministic search
+ * automaton of the keywords: the root has a wild card loop and the trie edges are labelled
+ * by class symbols. It accepts the same language as the search automaton of Sffeco, final
+ * states are the nodes where some keyword ends. State objects are created only when they
+ * are accessed, their indices are the positions of the nodes in the arrays.</p>
+ * <p>
+ * The failure links are used by the index based methods next(int, char) and
+ * searchAll(String), which run the deterministic Aho-Corasick automaton.</p>
+ * @author Libor
+ *
+ */
+public class DoubleArrayTrie extends BaseAutomaton implements ISearchEngine {
+	/* Static fields and constants */
+	/** Index of the root node. */
+	public static final int ROOT = 0;
+	/** Stands for a missing node. */
+	public static final int NONE = -1;
+	
+	/* Private fields */
+	private final String name;
+	private final AlphabetPartition alphabet;
+	private final CaseFolding folding;
+	// Character codes are classes + 1, so that no child is stored at the position of its parent
+	private final int codeCount;
+	private int[] base;
+	private int[] check;
+	private int[] failure;
+	// First keyword ending in each node, NONE if there is none
+	private int[] output;
+	// Doubly linked list of free positions, used only while building. Position 0 (the root)
+	// is the head of the list, lastFree is the last allocated free position.
+	private int[] nextFree;
+	private int[] prevFree;
+	private int lastFree;
+	// Nearest node on the failure path, where some keyword ends
+	private int[] outputLink;
+	// Next keyword ending in the same node, indexed by keywords
+	private final int[] nextOutput;
+	private int size;
+	private int nodeCount;
+	private final int patternCount;
+	// Maps ordinals of the class symbols to character codes
+	private final HashMap<Integer, Integer> symbolToCode = new HashMap<>();
+	
+	/* Constructors and factory methods */
+	
+	private DoubleArrayTrie(String name, String[] patterns, CaseFolding folding) {
+		this.name = name == null ? "" : name;
+		this.folding = folding;
+		this.patternCount = patterns.length;
+		ArrayList<Symbol> symbols = new ArrayList<>();
+		for (String pattern : patterns) {
+			for (int i = 0; i < pattern.length(); ++i)
+				symbols.add(folding.toSymbol(pattern.charAt(i)));
+		}
+		this.alphabet = AlphabetPartition.create(symbols);
+		this.codeCount = alphabet.getClassCount();
+		for (int cls = 0; cls < codeCount; ++cls)
+			symbolToCode.put(alphabet.getClassSymbol(cls).ordinal, cls + 1);
+		this.nextOutput = new int[patterns.length];
+		
+		int capacity = Math.max(codeCount + 2, 2 * patterns.length);
+		base = new int[capacity];
+		check = new int[capacity];
+		output = new int[capacity];
+		Arrays.fill(check, NONE);
+		Arrays.fill(output, NONE);
+		nextFree = new int[capacity];
+		prevFree = new int[capacity];
+		for (int i = 0; i < capacity; ++i) {
+			nextFree[i] = i + 1;
+			prevFree[i] = i - 1;
+		}
+		lastFree = capacity - 1;
+		check[ROOT] = ROOT;
+		size = 1;
+		nodeCount = 1;
+		
+		int[] order = build(patterns);
+		computeFailures(order);
+	}
+	
+	/**
+	 * Creates the trie of the given keywords.
+	 * @param name The name of the automaton.
+	 * @param patterns The keywords, their indices are reported by searchAll(String).
+	 * @param folding Case folding of the keywords.
+	 * @return
+	 */
+	public static DoubleArrayTrie create(String name, String[] patterns, CaseFolding folding) {
+		return new DoubleArrayTrie(name, patterns, folding);
+	}
+	
+	/**
+	 * Creates the trie of the patterns of the given dictionary.
+	 * @param dictionary
+	 * @return
+	 */
+	public static DoubleArrayTrie create(Sffeco dictionary) {
+		return new DoubleArrayTrie("", dictionary.getPatterns(), dictionary.getCaseFolding());
+	}
+	
+	/* Private methods */
+	
+	private int codeOf(char c) {
+		return alphabet.classOf(c) + 1;
+	}
+	
+	/* Inserts all keywords breadth first. Keywords are sorted by their codes, so that the
+	 * keywords sharing a node form a range. Returns the nodes in the breadth first order. */
+	private int[] build(String[] patterns) {
+		// Keywords converted to strings of codes, so that they can be compared directly
+		final String[] coded = new String[patterns.length];
+		for (int i = 0; i < patterns.length; ++i) {
+			char[] codes = new char[patterns[i].length()];
+			for (int k = 0; k < codes.length; ++k)
+				codes[k] = (char) codeOf(patterns[i].charAt(k));
+			coded[i] = new String(codes);
+		}
+		Integer[] sorted = new Integer[patterns.length];
+		for (int i = 0; i < sorted.length; ++i)
+			sorted[i] = i;
+		Arrays.sort(sorted, (Integer i1, Integer i2) -> {
+			int r = coded[i1].compareTo(coded[i2]);
+			return r != 0 ? r : Integer.compare(i2, i1);
+		});
+		
+		// Each entry is a node, the range of keywords [from, to) sharing it and its depth
+		ArrayDeque<int[]> queue = new ArrayDeque<>();
+		queue.add(new int[] { ROOT, 0, sorted.length, 0 });
+		int[] order = new int[16];
+		int orderLength = 0;
+		int[] codes = new int[codeCount];
+		int[] starts = new int[codeCount + 1];
+		int scanStart = 1;
+		while (!queue.isEmpty()) {
+			int[] entry = queue.poll();
+			int node = entry[0];
+			int from = entry[1];
+			int to = entry[2];
+			int depth = entry[3];
+			if (orderLength == order.length)
+				order = Arrays.copyOf(order, 2 * order.length);
+			order[orderLength++] = node;
+			
+			// Keywords ending here come first, the last added is the lowest index
+			while (from < to && coded[sorted[from]].length() == depth) {
+				nextOutput[sorted[from]] = output[node];
+				output[node] = sorted[from];
+				++from;
+			}
+			
+			// Group the rest by their next code
+			int childCount = 0;
+			for (int k = from; k < to; ++k) {
+				int code = coded[sorted[k]].charAt(depth);
+				if (childCount == 0 || codes[childCount - 1] != code) {
+					codes[childCount] = code;
+					starts[childCount] = k;
+					++childCount;
+				}
+			}
+			starts[childCount] = to;
+			if (childCount == 0)
+				continue;
+			
+			// Find a base, for which all children fit into free positions. Only bases placing
+			// the first child at a free position are tried. A single child fits at any free
+			// position, so it takes the first one. Nodes with more children start at scanStart,
+			// which skips the fragmented part of the arrays, whose holes are left to single
+			// children. Positions are never freed, so scanStart only moves forward.
+			int position;
+			if (childCount == 1) {
+				position = nextFree[0];
+			} else {
+				while (scanStart < base.length && check[scanStart] != NONE)
+					++scanStart;
+				position = scanStart;
+			}
+			int tries = 0;
+			while (position - codes[0] < 0 || !fits(position - codes[0], codes, childCount)) {
+				position = position < base.length ? nextFree[position] : position + 1;
+				++tries;
+			}
+			if (tries > 32)
+				scanStart = position;
+			int b = position - codes[0];
+			base[node] = b;
+			for (int k = 0; k < childCount; ++k) {
+				int child = b + codes[k];
+				check[child] = node;
+				unlinkFree(child);
+				++nodeCount;
+				queue.add(new int[] { child, starts[k], starts[k + 1], depth + 1 });
+			}
+		}
+		
+		// Trim the arrays
+		nextFree = null;
+		prevFree = null;
+		base = Arrays.copyOf(base, size);
+		check = Arrays.copyOf(check, size);
+		output = Arrays.copyOf(output, size);
+		return Arrays.copyOf(order, orderLength);
+	}
+	
+	/* Determines whether all children with the given codes fit at the given base, grows
+	 * the arrays if they do */
+	private boolean fits(int b, int[] codes, int childCount) {
+		for (int k = 0; k < childCount; ++k) {
+			int t = b + codes[k];
+			if (t < base.length && check[t] != NONE)
+				return false;
+		}
+		ensureCapacity(b + codes[childCount - 1] + 1);
+		size = Math.max(size, b + codes[childCount - 1] + 1);
+		return true;
+	}
+	
+	private void unlinkFree(int position) {
+		int previous = prevFree[position];
+		int next = nextFree[position];
+		nextFree[previous] = next;
+		if (next < base.length)
+			prevFree[next] = previous;
+		if (position == lastFree)
+			lastFree = previous;
+	}
+	
+	private void ensureCapacity(int capacity) {
+		if (capacity <= base.length)
+			return;
+		int oldLength = base.length;
+		int newLength = Math.max(capacity, oldLength + (oldLength >> 1));
+		base = Arrays.copyOf(base, newLength);
+		check = Arrays.copyOf(check, newLength);
+		output = Arrays.copyOf(output, newLength);
+		Arrays.fill(check, oldLength, newLength, NONE);
+		Arrays.fill(output, oldLength, newLength, NONE);
+		// Append the new positions to the free list
+		nextFree = Arrays.copyOf(nextFree, newLength);
+		prevFree = Arrays.copyOf(prevFree, newLength);
+		for (int i = oldLength; i < newLength; ++i) {
+			nextFree[i] = i + 1;
+			prevFree[i] = i - 1;
+		}
+		nextFree[lastFree] = oldLength;
+		prevFree[oldLength] = lastFree;
+		lastFree = newLength - 1;
+	}
+	
+	/* Computes failure and output links in the breadth first order */
+	private void computeFailures(int[] order) {
+		failure = new int[size];
+		outputLink = new int[size];
+		Arrays.fill(failure, NONE);
+		Arrays.fill(outputLink, NONE);
+		failure[ROOT] = ROOT;
+		for (int node : order) {
+			if (node == ROOT)
+				continue;
+			int parent = check[node];
+			int code = node - base[parent];
+			int f = ROOT;
+			if (parent != ROOT) {
+				f = failure[parent];
+				while (f != ROOT && childByCode(f, code) == NONE)
+					f = failure[f];
+				if (childByCode(f, code) != NONE)
+					f = childByCode(f, code);
+			}
+			failure[node] = f;
+			outputLink[node] = output[f] != NONE ? f : outputLink[f];
+		}
+	}
+	
+	/* Returns the child of the node over the code, or NONE */
+	private int childByCode(int node, int code) {
+		int t = base[node] + code;
+		return t < size && check[t] == node && t != ROOT ? t : NONE;
+	}
+	
+	/* Returns the index of the given state, or NONE if it is not a node of this trie */
+	private int indexOf(State state) {
+		if (state == null || state.parent != this || !isNode(state.index))
+			return NONE;
+		return state.index;
+	}
+	
+	private boolean isNode(int index) {
+		return index == ROOT || (index > ROOT && index < size && check[index] != NONE);
+	}
+	
+	/* Public methods working with node indices */
+	
+	/**
+	 * Returns the child of the given node over the character c.
+	 * @param node
+	 * @param c
+	 * @return The child or NONE.
+	 */
+	public int child(int node, char c) {
+		return childByCode(node, codeOf(c));
+	}
+	
+	/**
+	 * Makes a step of the Aho-Corasick automaton, i.e. follows the failure links from the given
+	 * node until a node with a child over c is found. It never fails, the root is the last
+	 * resort.
+	 * @param node
+	 * @param c
+	 * @return The node representing the longest suffix of the text read so far, that is
+	 * a prefix of some keyword.
+	 */
+	public int next(int node, char c) {
+		int code = codeOf(c);
+		int t = childByCode(node, code);
+		while (t == NONE && node != ROOT) {
+			node = failure[node];
+			t = childByCode(node, code);
+		}
+		return t == NONE ? ROOT : t;
+	}
+	
+	public int getFailure(int node) {
+		return failure[node];
+	}
+	
+	/**
+	 * Determines whether some keyword ends in the given node.
+	 * @param node
+	 * @return
+	 */
+	public boolean isFinal(int node) {
+		return output[node] != NONE;
+	}
+	
+	/**
+	 * Returns the number of nodes of the trie.
+	 * @return
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+	
+	/**
+	 * Returns the length of the arrays, i.e. the number of nodes including unused positions.
+	 * @return
+	 */
+	public int getSize() {
+		return size;
+	}
+	
+	/**
+	 * Returns the approximate number of bytes occupied by the arrays of this trie.
+	 * @return
+	 */
+	public long getMemoryFootprint() {
+		return 4L * (5L * size + nextOutput.length);
+	}
+	
+	public AlphabetPartition getAlphabet() {
+		return alphabet;
+	}
+	
+	public CaseFolding getCaseFolding() {
+		return folding;
+	}
+	
+	/* ISearchEngine implementation */
+	
+	@Override
+	public ArrayList<Pair<Integer>> searchAll(String text) {
+		ArrayList<Pair<Integer>> result = new ArrayList<>();
+		int[] found = new int[8];
+		int node = ROOT;
+		for (int i = 0; i < text.length(); ++i) {
+			node = next(node, text.charAt(i));
+			int foundCount = 0;
+			for (int n = output[node] != NONE ? node : outputLink[node]; n != NONE; n = outputLink[n]) {
+				for (int id = output[n]; id != NONE; id = nextOutput[id]) {
+					if (foundCount == found.length)
+						found = Arrays.copyOf(found, 2 * found.length);
+					found[foundCount++] = id;
+				}
+			}
+			if (foundCount > 1)
+				Arrays.sort(found, 0, foundCount);
+			for (int k = 0; k < foundCount; ++k)
+				result.add(new Pair<Integer>(found[k], i + 1));
+		}
+		return result;
+	}
+	
+	/* BaseAutomaton implementation */
+	
+	@Override
+	public int getStateIndexBound() {
+		return size;
+	}
+	
+	@Override
+	public String getName() {
+		return name;
+	}
+	
+	@Override
+	public State getStartState() {
+		return stateAt(ROOT);
+	}
+	
+	@Override
+	public boolean isStartState(State state) {
+		return indexOf(state) == ROOT;
+	}
+	
+	@Override
+	public boolean isFinalState(State state) {
+		int node = indexOf(state);
+		return node != NONE && isFinal(node);
+	}
+	
+	@Override
+	public Collection<State> getEpsilonClosure(Collection<State> stateSet) {
+		HashSet<State> result = new HashSet<>();
+		for (State state : stateSet) {
+			if (indexOf(state) != NONE)
+				result.add(state);
+		}
+		return result;
+	}
+	
+	@Override
+	public Collection<State> getEpsilonClosure(State state) {
+		HashSet<State> result = new HashSet<>();
+		if (indexOf(state) != NONE)
+			result.add(state);
+		return result;
+	}
+	
+	@Override
+	public Collection<State> getTransition(State state, Symbol symbol) {
+		HashSet<State> result = new HashSet<>();
+		int node = indexOf(state);
+		if (node == NONE || symbol == null)
+			return result;
+		if (symbol == Symbol.WILD_CARD) {
+			if (node == ROOT)
+				result.add(state);
+			return result;
+		}
+		Integer code = symbolToCode.get(symbol.ordinal);
+		if (code != null && childByCode(node, code) != NONE)
+			result.add(stateAt(childByCode(node, code)));
+		return result;
+	}
+	
+	@Override
+	public Collection<State> getTransition(Collection<State> stateSet, Symbol symbol) {
+		HashSet<State> result = new HashSet<>();
+		for (State state : stateSet) {
+			result.addAll(getTransition(state, symbol));
+		}
+		return result;
+	}
+	
+	@Override
+	public Collection<State> getTransition(State state, char c) {
+		HashSet<State> result = new HashSet<>();
+		int node = indexOf(state);
+		if (node == NONE)
+			return result;
+		if (node == ROOT)
+			result.add(state);
+		int t = child(node, c);
+		if (t != NONE)
+			result.add(stateAt(t));
+		return result;
+	}
+	
+	@Override
+	public Collection<State> getTransition(Collection<State> stateSet, char c) {
+		HashSet<State> result = new HashSet<>();
+		for (State state : stateSet) {
+			result.addAll(getTransition(state, c));
+		}
+		return result;
+	}
+	
+	@Override
+	public void actionOverStates(Consumer<State> action) {
+		for (int node = 0; node < size; ++node) {
+			if (isNode(node))
+				action.accept(stateAt(node));
+		}
+	}
+	
+	@Override
+	public void actionOverFinalStates(Consumer<State> action) {
+		for (int node = 0; node < size; ++node) {
+			if (isNode(node) && isFinal(node))
+				action.accept(stateAt(node));
+		}
+	}
+	
+	@Override
+	public void actionOverTransitions(TriConsumer<State, Symbol, State> action) {
+		action.accept(stateAt(ROOT), Symbol.WILD_CARD, stateAt(ROOT));
+		for (int node = 1; node < size; ++node) {
+			if (isNode(node)) {
+				int parent = check[node];
+				Symbol symbol = alphabet.getClassSymbol(node - base[parent] - 1);
+				action.accept(stateAt(parent), symbol, stateAt(node));
+			}
+		}
+	}
+	
+	@Override
+	public String dump() {
+		StringBuilder sb = new StringBuilder();
+		for (int node = 0; node < size; ++node) {
+			if (!isNode(node))
+				continue;
+			sb.append(System.lineSeparator());
+			if (node == ROOT && isFinal(node))
+				sb.append("<>");
+			else if (isFinal(node))
+				sb.append("<-");
+			else if (node == ROOT)
+				sb.append("->");
+			else
+				sb.append("  ");
+			sb.append(node).append(":: ");
+			if (node == ROOT)
+				sb.append("(").append(Symbol.WILD_CARD).append(": ").append(ROOT).append(" ) ");
+			for (int code = 1; code <= codeCount; ++code) {
+				int t = childByCode(node, code);
+				if (t != NONE)
+					sb.append("(").append(alphabet.getClassSymbol(code - 1)).append(": ")
+						.append(t).append(" ) ");
+			}
+			sb.append("fail: ").append(failure[node]);
+		}
+		return sb.toString();
+	}
+}
@@ -68,6 +68,16 @@ public class EmptyAutomaton extends BaseAutomaton {
 		return new HashSet<>();
 	}
 
+	@Override
+	public Collection<State> getTransition(State state, char c) {
+		return new HashSet<>();
+	}
+	
+	@Override
+	public Collection<State> getTransition(Collection<State> stateSet, char c) {
+		return new HashSet<>();
+	}
+	
 	@Override
 	public void actionOverStates(Consumer<State> action) {
 		assert(initState != null);
@@ -85,7 +95,7 @@ public class EmptyAutomaton extends BaseAutomaton {
 		StringBuilder sb = new StringBuilder();
 		sb.append("Empty Automaton: ")
 			.append(System.lineSeparator())
-			.append(initState.id)
+			.append(initState.getId())
 			.append(System.lineSeparator());
 		return sb.toString();			
 	}
@@ -0,0 +1,137 @@
+package kenni;
+
+import kenni.Sffeco.Engine;
+
+/**
+ * <p>Chooses the search engine for a set of patterns or for an already built automaton.
+ * The choice is made by cheap rules over the number and the lengths of the patterns, or over
+ * the statistics of the automaton (see {@link AutomatonStatistics}), so planning costs much
+ * less than building any of the engines. Sffeco uses the planner for Engine.AUTO.</p>
+ * <p>
+ * The rules for pattern sets, in the order of their precedence:</p>
+ * <ul>
+ * <li>Empty sets and sets with an empty pattern are simulated by the automaton, no other
+ * engine supports them.</li>
+ * <li>Patterns fitting into a machine word are searched by the bit-parallel Shift-And.</li>
+ * <li>Small sets are determinized and compiled, the deterministic search automaton of
+ * keywords has at most as many states as the patterns have characters.</li>
+ * <li>Long patterns are searched by Set-Horspool, which skips most of the text, unless there
+ * are so many patterns, that the shifts become short.</li>
+ * <li>Large dictionaries of medium length patterns are searched by Wu-Manber.</li>
+ * <li>Everything else is searched by the Aho-Corasick automaton in a double-array trie,
+ * which reads every character once regardless of the patterns.</li>
+ * </ul>
+ * @author Libor
+ *
+ */
+public class EnginePlanner {
+	/* Static fields and constants */
+	// Total pattern length, up to which the search automaton is compiled
+	private static final int MAX_COMPILED_LENGTH = 256;
+	// Shortest pattern and the largest set searched by Set-Horspool
+	private static final int MIN_HORSPOOL_LENGTH = 8;
+	private static final int MAX_HORSPOOL_PATTERNS = 1000;
+	// Shortest pattern and the smallest set searched by Wu-Manber
+	private static final int MIN_WU_MANBER_LENGTH = 4;
+	private static final int MIN_WU_MANBER_PATTERNS = 1000;
+	// Automata with at most this many states are determinized, larger ones only if they are
+	// deterministic already
+	private static final int MAX_DETERMINIZED_STATES = 4096;
+	// Automata whose active sets are never larger are simulated directly
+	private static final int MAX_SIMULATED_ACTIVE_STATES = 8;
+	
+	/* Constructors */
+	
+	private EnginePlanner() {
+	}
+	
+	/* Public methods */
+	
+	/**
+	 * Chooses the engine for searching the given patterns.
+	 * @param patterns
+	 * @param folding Case folding of the patterns, the current rules do not depend on it.
+	 * @return
+	 */
+	public static Plan plan(String[] patterns, CaseFolding folding) {
+		if (patterns.length == 0)
+			return new Plan(Engine.AUTOMATON, "there are no patterns");
+		int total = 0;
+		int min = Integer.MAX_VALUE;
+		int max = 0;
+		for (String pattern : patterns) {
+			total += pattern.length();
+			min = Math.min(min, pattern.length());
+			max = Math.max(max, pattern.length());
+		}
+		String summary = patterns.length + " patterns of " + min + " to " + max + " characters, "
+				+ total + " in total";
+		if (min == 0)
+			return new Plan(Engine.AUTOMATON, summary + ", the empty pattern is supported only by the automaton");
+		if (total <= ShiftAndEngine.MAX_TOTAL_LENGTH)
+			return new Plan(Engine.SHIFT_AND, summary + ", all of them fit into one machine word");
+		if (total <= MAX_COMPILED_LENGTH)
+			return new Plan(Engine.COMPILED_DFA, summary + ", the deterministic automaton is small enough to compile");
+		if (min >= MIN_HORSPOOL_LENGTH && patterns.length <= MAX_HORSPOOL_PATTERNS)
+			return new Plan(Engine.SET_HORSPOOL, summary + ", long patterns allow long shifts");
+		if (min >= MIN_WU_MANBER_LENGTH && patterns.length >= MIN_WU_MANBER_PATTERNS)
+			return new Plan(Engine.WU_MANBER, summary + ", a large dictionary is filtered by hashed blocks");
+		return new Plan(Engine.DOUBLE_ARRAY, summary + ", short patterns do not allow skipping");
+	}
+	
+	/**
+	 * Chooses the engine for simulating the given automaton. Only the engines working over
+	 * the automaton are considered, i.e. AUTOMATON, SPARSE_NFA and COMPILED_DFA.
+	 * @param aut
+	 * @return
+	 */
+	public static Plan plan(BaseAutomaton aut) {
+		return plan(AutomatonStatistics.compute(aut));
+	}
+	
+	/**
+	 * Same as plan(BaseAutomaton), but uses statistics, that have already been computed.
+	 * @param statistics
+	 * @return
+	 */
+	public static Plan plan(AutomatonStatistics statistics) {
+		String summary = statistics.getStateCount() + " states, epsilon density "
+				+ String.format("%.2f", statistics.getEpsilonDensity()) + ", at most "
+				+ statistics.getEstimatedMaxActiveStates() + " active states";
+		if (statistics.isDeterministic())
+			return new Plan(Engine.COMPILED_DFA, summary + ", the automaton is deterministic");
+		if (statistics.getStateCount() <= MAX_DETERMINIZED_STATES)
+			return new Plan(Engine.COMPILED_DFA, summary + ", the automaton is small enough to determinize");
+		if (statistics.getEstimatedMaxActiveStates() <= MAX_SIMULATED_ACTIVE_STATES)
+			return new Plan(Engine.AUTOMATON, summary + ", the active sets are small");
+		return new Plan(Engine.SPARSE_NFA, summary + ", the active sets are large");
+	}
+	
+	/* Nested classes */
+	
+	/**
+	 * The chosen engine together with a human readable reason of the choice.
+	 */
+	public static class Plan {
+		private final Engine engine;
+		private final String reason;
+		
+		Plan(Engine engine, String reason) {
+			this.engine = engine;
+			this.reason = reason;
+		}
+		
+		public Engine getEngine() {
+			return engine;
+		}
+		
+		public String getReason() {
+			return reason;
+		}
+		
+		@Override
+		public String toString() {
+			return engine + ": " + reason;
+		}
+	}
+}
@@ -48,6 +48,15 @@ public interface IRegularFactory {
 			boolean finalOnly,
 			BaseAutomaton aut);
 	
+	/**
+	 * Creates a new Automaton accepting the reversal of the language of the passed automaton,
+	 * i.e. all the words of the original language read backwards.
+	 * @param resultName The name of the resulting automaton.
+	 * @param aut The automaton to be reversed. Its state is not changed.
+	 * @return
+	 */
+	public BaseAutomaton reversal(String resultName, BaseAutomaton aut);
+	
 	public static class BeforeInsertedEvent extends StateEventObject {
 		private static final long serialVersionUID = 1L;
 		public final int branchID;
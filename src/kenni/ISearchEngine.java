@@ -0,0 +1,21 @@
+package kenni;
+
+import java.util.ArrayList;
+
+/**
+ * Represents an algorithm searching for a fixed set of patterns, that can be used by Sffeco
+ * instead of simulating its automaton. Implementations have to be thread safe, the same
+ * engine may search several texts at once.
+ * @author Libor
+ *
+ */
+public interface ISearchEngine {
+	/**
+	 * Finds all matches of all patterns in the given text.
+	 * @param text The text to be searched in.
+	 * @return An ArrayList of pairs of integers, where the first number is the index of the
+	 * matched pattern and the second number is the position, where the match ends. The pairs
+	 * are sorted by the end positions and then by the pattern indices.
+	 */
+	public ArrayList<Pair<Integer>> searchAll(String text);
+}
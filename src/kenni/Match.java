@@ -0,0 +1,29 @@
+package kenni;
+
+/**
+ * Represents a match of a pattern in a text with both of its bounds.
+ * @author Libor
+ *
+ */
+public class Match {
+	/** Index of the matched pattern. */
+	public final int patternID;
+	/** Position of the first matched character. */
+	public final int start;
+	/** Position right after the last matched character. */
+	public final int end;
+	
+	public Match(int patternID, int start, int end) {
+		this.patternID = patternID;
+		this.start = start;
+		this.end = end;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("[").append(patternID).append(", ").append(start).append(", ");
+		sb.append(end).append("]");
+		return sb.toString();
+	}
+}
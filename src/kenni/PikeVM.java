@@ -0,0 +1,224 @@
+package kenni;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import kenni.SparseSimulator.SparseSet;
+
+/**
+ * <p>Finds matches of an automaton together with its capture groups (see CaptureTagger)
+ * in time linear in the length of the text. Like in the Pike VM, every active state is
+ * a thread with its own capture slots and a state reached by several threads keeps only
+ * the first of them, so no backtracking is ever needed.</p>
+ * <p>
+ * Captures are returned as arrays of slots: slots 2 * g and 2 * g + 1 are the start and
+ * the end of group g, or -1 if the group has not participated in the match. Group 0 is
+ * the whole match. If a group matches several times (e.g. inside an iteration), the last
+ * occurrence is captured. Threads are ordered by the start of their match and then by the
+ * order, in which the transitions of the automaton are enumerated, so if the pattern is
+ * ambiguous, the captures of the preferred thread are returned.</p>
+ * <p>
+ * The object keeps its buffers between calls, so it must not be used by several threads
+ * at once.</p>
+ * @author Libor
+ *
+ */
+public class PikeVM {
+	/* Private fields */
+	private final CompactNfa nfa;
+	private final AlphabetPartition alphabet;
+	private final int slotCount;
+	// Slots recorded when entering state s are tagSlot[tagStart[s], tagStart[s + 1])
+	private final int[] tagStart;
+	private final int[] tagSlot;
+	// Threads of the current and the next position, the slots of thread s are
+	// stored at [s * slotCount, (s + 1) * slotCount)
+	private SparseSet current;
+	private SparseSet next;
+	private int[] currentSlots;
+	private int[] nextSlots;
+	private final int[] stack;
+	private final int[] seed;
+	
+	/* Constructors */
+	
+	/**
+	 * Creates the VM for the given automaton, whose capture groups have been marked by
+	 * the tagger.
+	 * @param aut
+	 * @param tagger
+	 */
+	public PikeVM(BaseAutomaton aut, CaptureTagger tagger) {
+		nfa = new CompactNfa(aut);
+		alphabet = nfa.getAlphabet();
+		slotCount = 2 * tagger.getGroupCount();
+		
+		final int n = nfa.getStateCount();
+		final int[][] tagsOfCompact = new int[n][];
+		tagStart = new int[n + 1];
+		for (int s = 0; s < n; ++s) {
+			int[] tags = tagsOfCompact[s] = tagger.getTags(nfa.getOriginalState(s));
+			tagStart[s + 1] = tagStart[s] + (tags == null ? 0 : tags.length);
+		}
+		tagSlot = new int[tagStart[n]];
+		for (int s = 0; s < n; ++s) {
+			int[] tags = tagsOfCompact[s];
+			if (tags != null)
+				System.arraycopy(tags, 0, tagSlot, tagStart[s], tags.length);
+		}
+		
+		int capacity = Math.max(n, 1);
+		current = new SparseSet(capacity);
+		next = new SparseSet(capacity);
+		currentSlots = new int[capacity * slotCount];
+		nextSlots = new int[capacity * slotCount];
+		stack = new int[capacity];
+		seed = new int[slotCount];
+	}
+	
+	/* Private methods */
+	
+	/* Adds the thread entering the state at the position with the given slots (at offset
+	 * from in source) and the threads of its epsilon closure, that are not in the set yet */
+	private void addThread(SparseSet set, int[] slots, int state, int[] source, int from, int position) {
+		if (!set.add(state))
+			return;
+		enter(slots, state, source, from, position);
+		int top = 0;
+		stack[top++] = state;
+		while (top > 0) {
+			int s = stack[--top];
+			for (int t = nfa.epsilonEnd(s) - 1; t >= nfa.epsilonStart(s); --t) {
+				int target = nfa.epsilonTarget(t);
+				if (set.add(target)) {
+					enter(slots, target, slots, s * slotCount, position);
+					stack[top++] = target;
+				}
+			}
+		}
+	}
+	
+	/* Copies the slots into the row of the state and records its tags */
+	private void enter(int[] slots, int state, int[] source, int from, int position) {
+		int offset = state * slotCount;
+		System.arraycopy(source, from, slots, offset, slotCount);
+		for (int i = tagStart[state]; i < tagStart[state + 1]; ++i)
+			slots[offset + tagSlot[i]] = position;
+	}
+	
+	/* Moves all threads of the current set, whose match starts at most at maxStart, over
+	 * the character at the position into the next set */
+	private void step(char c, int position, int maxStart) {
+		int cls = alphabet.classOf(c);
+		next.clear();
+		for (int i = 0; i < current.size(); ++i) {
+			int s = current.get(i);
+			int from = s * slotCount;
+			if (currentSlots[from] > maxStart)
+				continue;
+			for (int t = nfa.firstTransition(s, cls); t < nfa.transitionEnd(s) && nfa.transitionClass(t) == cls; ++t)
+				addThread(next, nextSlots, nfa.transitionTarget(t), currentSlots, from, position + 1);
+			for (int t = nfa.wildStart(s); t < nfa.wildEnd(s); ++t)
+				addThread(next, nextSlots, nfa.wildTarget(t), currentSlots, from, position + 1);
+		}
+		SparseSet swap = current;
+		current = next;
+		next = swap;
+		int[] swapSlots = currentSlots;
+		currentSlots = nextSlots;
+		nextSlots = swapSlots;
+	}
+	
+	/* Starts a new thread in the start state at the position */
+	private void seed(int position) {
+		if (nfa.getStartState() < 0)
+			return;
+		Arrays.fill(seed, -1);
+		seed[0] = position;
+		addThread(current, currentSlots, nfa.getStartState(), seed, 0, position);
+	}
+	
+	/* Returns the slots of the first final thread, or null if there is none */
+	private int[] firstFinal(int position) {
+		for (int i = 0; i < current.size(); ++i) {
+			int s = current.get(i);
+			if (nfa.isFinal(s)) {
+				int[] result = Arrays.copyOfRange(currentSlots, s * slotCount, (s + 1) * slotCount);
+				result[1] = position;
+				return result;
+			}
+		}
+		return null;
+	}
+	
+	/* Public methods */
+	
+	/**
+	 * Determines whether the whole text is matched by the automaton.
+	 * @param text
+	 * @return The slots of the match, or null if the text is not matched.
+	 */
+	public int[] match(CharSequence text) {
+		current.clear();
+		seed(0);
+		for (int i = 0; i < text.length() && current.size() > 0; ++i)
+			step(text.charAt(i), i, Integer.MAX_VALUE);
+		return firstFinal(text.length());
+	}
+	
+	/**
+	 * Finds the leftmost match starting at from or later and among the leftmost matches
+	 * the longest one.
+	 * @param text
+	 * @param from
+	 * @return The slots of the match, or null if there is no match.
+	 */
+	public int[] find(CharSequence text, int from) {
+		int[] best = null;
+		current.clear();
+		for (int i = from; ; ++i) {
+			if (best == null)
+				seed(i);
+			// Threads are ordered by their starts, so the first final thread is preferred
+			int[] found = firstFinal(i);
+			if (found != null && (best == null || found[0] < best[0]
+					|| (found[0] == best[0] && found[1] > best[1])))
+				best = found;
+			if (i == text.length() || (best != null && current.size() == 0))
+				break;
+			step(text.charAt(i), i, best == null ? Integer.MAX_VALUE : best[0]);
+		}
+		return best;
+	}
+	
+	/**
+	 * Finds all non-overlapping leftmost longest matches, see {@link #find(CharSequence, int)}.
+	 * @param text
+	 * @return The slots of the matches in the order of their positions.
+	 */
+	public ArrayList<int[]> findAll(CharSequence text) {
+		ArrayList<int[]> result = new ArrayList<>();
+		int from = 0;
+		while (from <= text.length()) {
+			int[] found = find(text, from);
+			if (found == null)
+				break;
+			result.add(found);
+			// Empty matches would be found again at the same position
+			from = found[1] > found[0] ? found[1] : found[1] + 1;
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the number of slots of the returned arrays, i.e. twice the number of groups.
+	 * @return
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+	
+	public CompactNfa getNfa() {
+		return nfa;
+	}
+}
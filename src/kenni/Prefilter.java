@@ -0,0 +1,123 @@
+package kenni;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+
+import kenni.BaseAutomaton.State;
+
+/**
+ * Finds positions in a text, at which a match of some pattern may start, i.e. positions of
+ * characters matching some of the first symbols of the patterns. A simulator, that is idle
+ * (no match is in progress), can jump right to the next such position instead of reading
+ * every character.
+ * <p>
+ * A single first character is searched by String.indexOf, which the JVM compiles into
+ * vectorized code. Otherwise the characters are looked up in a table of candidate classes
+ * of an AlphabetPartition.</p>
+ * @author Libor
+ *
+ */
+class Prefilter {
+	/* Private fields */
+	private final ArrayList<Symbol> symbols;
+	// The only candidate character, used if single is true
+	private final char singleChar;
+	private final boolean single;
+	private final AlphabetPartition alphabet;
+	private final boolean[] candidateClass;
+	
+	/* Constructors and factory methods */
+	
+	private Prefilter(ArrayList<Symbol> symbols) {
+		this.symbols = symbols;
+		this.single = symbols.size() == 1 && !symbols.get(0).isCharClass();
+		this.singleChar = symbols.get(0).value;
+		this.alphabet = AlphabetPartition.create(symbols);
+		this.candidateClass = new boolean[alphabet.getClassCount()];
+		for (int cls = 0; cls < candidateClass.length; ++cls) {
+			char c = alphabet.getRepresentative(cls);
+			for (Symbol symbol : symbols) {
+				if (symbol.matches(c))
+					candidateClass[cls] = true;
+			}
+		}
+	}
+	
+	/**
+	 * Creates a prefilter for patterns starting with the given symbols.
+	 * @param firstSymbols
+	 * @return The prefilter, or null if it would not skip anything, i.e. if there are no
+	 * symbols or some of them is epsilon or wild card.
+	 */
+	static Prefilter create(Collection<Symbol> firstSymbols) {
+		ArrayList<Symbol> symbols = new ArrayList<>(new LinkedHashSet<>(firstSymbols));
+		if (symbols.isEmpty())
+			return null;
+		for (Symbol symbol : symbols) {
+			if (symbol == Symbol.EPSILON || symbol == Symbol.WILD_CARD || symbol == Symbol.COMPLEMENT)
+				return null;
+		}
+		return new Prefilter(symbols);
+	}
+	
+	/**
+	 * Creates a prefilter for the language of the given pattern automaton. The first symbols
+	 * are the symbols of the transitions leaving the epsilon closure of its start state.
+	 * @param pattern
+	 * @return The prefilter, or null if the pattern accepts the empty string or it does not
+	 * restrict its first character.
+	 */
+	static Prefilter forPattern(final BaseAutomaton pattern) {
+		if (pattern.getStartState() == null)
+			return null;
+		final Collection<State> start = pattern.getEpsilonClosure(pattern.getStartState());
+		for (State state : start) {
+			if (pattern.isFinalState(state))
+				return null;
+		}
+		final ArrayList<Symbol> firstSymbols = new ArrayList<>();
+		pattern.actionOverTransitions((State source, Symbol symbol, State target) -> {
+			if (symbol != Symbol.EPSILON && start.contains(source))
+				firstSymbols.add(symbol);
+		});
+		return create(firstSymbols);
+	}
+	
+	/* Methods */
+	
+	/**
+	 * Determines whether a match may start with the given character.
+	 * @param c
+	 * @return
+	 */
+	boolean isCandidate(char c) {
+		return candidateClass[alphabet.classOf(c)];
+	}
+	
+	/**
+	 * Returns the lowest position from, at which a match may start.
+	 * @param text
+	 * @param from
+	 * @return The position or the length of the text if there is no such position.
+	 */
+	int nextCandidate(String text, int from) {
+		if (single) {
+			int result = text.indexOf(singleChar, from);
+			return result < 0 ? text.length() : result;
+		}
+		int length = text.length();
+		int i = from;
+		while (i < length && !candidateClass[alphabet.classOf(text.charAt(i))])
+			++i;
+		return i;
+	}
+	
+	/**
+	 * Returns the first symbols this prefilter has been created for.
+	 * @return
+	 */
+	Collection<Symbol> getSymbols() {
+		return symbols;
+	}
+}
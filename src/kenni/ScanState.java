@@ -0,0 +1,152 @@
+package kenni;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * <p>Immutable snapshot of a StreamScanner between two fragments of a stream: the number
+ * of characters read so far and either the index of the current deterministic state, or
+ * the sorted indices of the active states of the flattened NFA.</p>
+ * <p>
+ * The state does not refer to the scanner, so it can be stored in a flow table, moved to
+ * another thread or written by {@link #writeTo(DataOutput)} and resumed later by the scanner,
+ * that created it (or by a scanner built from the same automaton in the same way).</p>
+ * @author Libor
+ *
+ */
+public final class ScanState implements Serializable {
+	/* Static fields and constants */
+	private static final long serialVersionUID = 1L;
+	// Tag of the deterministic states in the serialized form, other tags are set sizes
+	private static final int DFA_TAG = -1;
+	
+	/* Private fields */
+	private final long offset;
+	private final int dfaState;
+	// Null in the deterministic mode
+	private final int[] nfaStates;
+	
+	/* Constructors and factory methods */
+	
+	private ScanState(long offset, int dfaState, int[] nfaStates) {
+		if (offset < 0)
+			throw new IllegalArgumentException("Negative offset: " + offset);
+		this.offset = offset;
+		this.dfaState = dfaState;
+		this.nfaStates = nfaStates;
+	}
+	
+	/* Creates the state of a deterministic scanner, the state may be DeterministicAutomaton.DEAD */
+	static ScanState ofDfa(long offset, int state) {
+		return new ScanState(offset, state, null);
+	}
+	
+	/* Creates the state of a nondeterministic scanner, the states must be sorted and are
+	 * not copied */
+	static ScanState ofNfa(long offset, int[] states) {
+		return new ScanState(offset, DeterministicAutomaton.DEAD, states);
+	}
+	
+	/**
+	 * Reads a state written by {@link #writeTo(DataOutput)}.
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static ScanState readFrom(DataInput in) throws IOException {
+		long offset = in.readLong();
+		int tag = in.readInt();
+		if (tag == DFA_TAG)
+			return ofDfa(offset, in.readInt());
+		if (tag < 0)
+			throw new IOException("Invalid scan state tag: " + tag);
+		int[] states = new int[tag];
+		for (int i = 0; i < tag; ++i)
+			states[i] = in.readInt();
+		return ofNfa(offset, states);
+	}
+	
+	/* Public methods */
+	
+	/**
+	 * Writes the state in a compact form: the offset, then either -1 and the deterministic
+	 * state, or the number of the active states followed by their indices.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeLong(offset);
+		if (nfaStates == null) {
+			out.writeInt(DFA_TAG);
+			out.writeInt(dfaState);
+		} else {
+			out.writeInt(nfaStates.length);
+			for (int state : nfaStates)
+				out.writeInt(state);
+		}
+	}
+	
+	/**
+	 * Returns the number of characters of the stream read before this state.
+	 * @return
+	 */
+	public long getOffset() {
+		return offset;
+	}
+	
+	public boolean isDeterministic() {
+		return nfaStates == null;
+	}
+	
+	/**
+	 * Returns the index of the deterministic state, or DeterministicAutomaton.DEAD if no match
+	 * can follow.
+	 * @return
+	 */
+	public int getDfaState() {
+		if (nfaStates != null)
+			throw new IllegalStateException("The state of a nondeterministic scanner");
+		return dfaState;
+	}
+	
+	/**
+	 * Returns the sorted indices of the active states of the flattened NFA (see CompactNfa).
+	 * @return
+	 */
+	public int[] getNfaStates() {
+		if (nfaStates == null)
+			throw new IllegalStateException("The state of a deterministic scanner");
+		return nfaStates.clone();
+	}
+	
+	/* Package private methods */
+	
+	/* Returns the active states without copying them */
+	int[] nfaStates() {
+		return nfaStates;
+	}
+	
+	/* Object overrides */
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof ScanState))
+			return false;
+		ScanState other = (ScanState) obj;
+		return offset == other.offset && dfaState == other.dfaState
+				&& Arrays.equals(nfaStates, other.nfaStates);
+	}
+	
+	@Override
+	public int hashCode() {
+		return 31 * (31 * Long.hashCode(offset) + dfaState) + Arrays.hashCode(nfaStates);
+	}
+	
+	@Override
+	public String toString() {
+		return "@" + offset + " " + (nfaStates == null ? Integer.toString(dfaState) : Arrays.toString(nfaStates));
+	}
+}
@@ -0,0 +1,499 @@
+package kenni;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * <p>Compiles a deterministic automaton into a DfaScanner class generated at runtime.
+ * Every state becomes a switch over the alphabet classes with the target states as
+ * constants, so the transition table is not read at all and the JIT compiler can keep
+ * the state in a register.</p>
+ * <p>
+ * The class is defined as a hidden class (Lookup.defineHiddenClass, called reflectively so
+ * that this code runs on older JVMs too). Automata, whose scanning method would be too large
+ * for the JIT compiler, and JVMs without hidden classes get a table driven scanner
+ * instead.</p>
+ * @author Libor
+ *
+ */
+final class ScannerCompiler {
+	/* Static fields and constants */
+	/** Methods with more bytes of code are not compiled by HotSpot by default. */
+	static final int MAX_CODE_LENGTH = 8000;
+	// Classfile version 49 does not need stack map frames
+	private static final int CLASSFILE_VERSION = 49;
+	private static final String CLASS_NAME = "kenni/CompiledScanner";
+	
+	// Opcodes
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC2_W = 0x14;
+	private static final int ILOAD = 0x15;
+	private static final int ALOAD = 0x19;
+	private static final int ILOAD_2 = 0x1c;
+	private static final int ILOAD_3 = 0x1d;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int CALOAD = 0x34;
+	private static final int ISTORE = 0x36;
+	private static final int ASTORE = 0x3a;
+	private static final int ISTORE_3 = 0x3e;
+	private static final int LSHL = 0x79;
+	private static final int LAND = 0x7f;
+	private static final int LOR = 0x81;
+	private static final int IINC = 0x84;
+	private static final int I2L = 0x85;
+	private static final int IF_ICMPLT = 0xa1;
+	private static final int TABLESWITCH = 0xaa;
+	private static final int LOOKUPSWITCH = 0xab;
+	private static final int LRETURN = 0xad;
+	private static final int RETURN = 0xb1;
+	private static final int GETFIELD = 0xb4;
+	private static final int PUTFIELD = 0xb5;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int GOTO_W = 0xc8;
+	
+	// Local variables of the scan method
+	private static final int LOCAL_LENGTH = 4;
+	private static final int LOCAL_TABLE = 5;
+	private static final int LOCAL_CLASS = 6;
+	
+	private ScannerCompiler() { }
+	
+	/**
+	 * Creates a scanner of the automaton, that stops in the given states.
+	 * @param dfa
+	 * @param stopStates
+	 * @return The generated scanner, or the table driven one if the automaton is too large
+	 * or if the class cannot be defined.
+	 */
+	static DfaScanner compile(DeterministicAutomaton dfa, BitSet stopStates) {
+		char[] classTable = dfa.getAlphabet().getClassTable();
+		byte[] bytes = generate(dfa, stopStates);
+		DfaScanner result = bytes == null ? null : define(bytes, classTable);
+		return result != null ? result : new TableScanner(dfa, stopStates);
+	}
+	
+	/**
+	 * Determines whether the scanner has been generated, i.e. it is not the table driven one.
+	 * @param scanner
+	 * @return
+	 */
+	static boolean isGenerated(DfaScanner scanner) {
+		return !(scanner instanceof TableScanner);
+	}
+	
+	/* Private methods */
+	
+	/* Defines the class as a hidden class, returns null if it is not supported */
+	private static DfaScanner define(byte[] bytes, char[] classTable) {
+		try {
+			Class<?> optionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+			Object noOptions = Array.newInstance(optionClass, 0);
+			Method defineHidden = MethodHandles.Lookup.class.getMethod("defineHiddenClass",
+					byte[].class, boolean.class, noOptions.getClass());
+			MethodHandles.Lookup lookup = (MethodHandles.Lookup) defineHidden.invoke(MethodHandles.lookup(),
+					bytes, true, noOptions);
+			MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(),
+					MethodType.methodType(void.class, char[].class));
+			return (DfaScanner) constructor.invoke(classTable);
+		} catch (Throwable e) {
+			// Hidden classes are available since Java 15
+			return null;
+		}
+	}
+	
+	/* Returns the classfile of the scanner, or null if its code would be too large */
+	private static byte[] generate(DeterministicAutomaton dfa, BitSet stopStates) {
+		int stateCount = dfa.getStateCount();
+		int classCount = dfa.getAlphabet().getClassCount();
+		// Every state has at least 20 bytes of code
+		if (stateCount > Short.MAX_VALUE || 20L * stateCount > MAX_CODE_LENGTH)
+			return null;
+		
+		ConstantPool pool = new ConstantPool();
+		int thisClass = pool.classRef(CLASS_NAME);
+		int superClass = pool.classRef("java/lang/Object");
+		int scannerInterface = pool.classRef("kenni/DfaScanner");
+		int tableField = pool.fieldRef(CLASS_NAME, "classTable", "[C");
+		int objectInit = pool.methodRef("java/lang/Object", "<init>", "()V");
+		int lengthMethod = pool.methodRef("java/lang/String", "length", "()I");
+		int charAtMethod = pool.methodRef("java/lang/String", "charAt", "(I)C");
+		int stateMask = pool.longConstant(0xFFFFFFFFL);
+		
+		// Constructor storing the class table
+		Code init = new Code();
+		init.op(ALOAD_0);
+		init.op(INVOKESPECIAL).u2(objectInit);
+		init.op(ALOAD_0);
+		init.op(ALOAD_1);
+		init.op(PUTFIELD).u2(tableField);
+		init.op(RETURN);
+		
+		// The scan method, see DfaScanner. It is a single loop reading a character and
+		// switching over the state and then over the class of the character, so that the JIT
+		// compiler sees a plain loop with the state in a local variable.
+		Code scan = new Code();
+		int loopLabel = scan.newLabel();
+		int returnLabel = scan.newLabel();
+		int[] stateLabels = new int[stateCount];
+		// Blocks, that set the state and continue, or return after entering a stop state
+		// or the dead state
+		int[] continueLabels = new int[stateCount];
+		Arrays.fill(continueLabels, -1);
+		HashMap<Integer, Integer> stopLabels = new HashMap<>();
+		
+		scan.op(ALOAD_1);
+		scan.op(INVOKEVIRTUAL).u2(lengthMethod);
+		scan.op(ISTORE).u1(LOCAL_LENGTH);
+		scan.op(ALOAD_0);
+		scan.op(GETFIELD).u2(tableField);
+		scan.op(ASTORE).u1(LOCAL_TABLE);
+		scan.bind(loopLabel);
+		// Return at the end of the text
+		scan.op(ILOAD_2);
+		scan.op(ILOAD).u1(LOCAL_LENGTH);
+		scan.op(IF_ICMPLT).u2(8);
+		scan.jump(returnLabel);
+		// Read the class of the next character
+		scan.op(ALOAD).u1(LOCAL_TABLE);
+		scan.op(ALOAD_1);
+		scan.op(ILOAD_2);
+		scan.op(INVOKEVIRTUAL).u2(charAtMethod);
+		scan.op(CALOAD);
+		scan.op(ISTORE).u1(LOCAL_CLASS);
+		scan.op(IINC).u1(2).u1(1);
+		scan.op(ILOAD_3);
+		for (int state = 0; state < stateCount; ++state)
+			stateLabels[state] = scan.newLabel();
+		scan.tableSwitch(stopLabel(scan, stopLabels, DeterministicAutomaton.DEAD), stateLabels);
+		
+		int[] targetLabels = new int[classCount];
+		for (int state = 0; state < stateCount; ++state) {
+			scan.bind(stateLabels[state]);
+			scan.op(ILOAD).u1(LOCAL_CLASS);
+			for (int cls = 0; cls < classCount; ++cls) {
+				int target = dfa.nextByClass(state, cls);
+				if (target == DeterministicAutomaton.DEAD || stopStates.get(target)) {
+					targetLabels[cls] = stopLabel(scan, stopLabels, target);
+				} else {
+					if (continueLabels[target] < 0)
+						continueLabels[target] = scan.newLabel();
+					targetLabels[cls] = continueLabels[target];
+				}
+			}
+			scan.classSwitch(targetLabels);
+			if (scan.length() > MAX_CODE_LENGTH)
+				return null;
+		}
+		
+		for (int target = 0; target < stateCount; ++target) {
+			if (continueLabels[target] < 0)
+				continue;
+			scan.bind(continueLabels[target]);
+			scan.pushInt(target);
+			scan.op(ISTORE_3);
+			scan.jump(loopLabel);
+		}
+		for (int target : stopLabels.keySet()) {
+			scan.bind(stopLabels.get(target));
+			scan.pushInt(target);
+			scan.op(ISTORE_3);
+			scan.jump(returnLabel);
+		}
+		scan.bind(returnLabel);
+		scan.op(ILOAD_2);
+		scan.op(I2L);
+		scan.op(BIPUSH).u1(32);
+		scan.op(LSHL);
+		scan.op(ILOAD_3);
+		scan.op(I2L);
+		scan.op(LDC2_W).u2(stateMask);
+		scan.op(LAND);
+		scan.op(LOR);
+		scan.op(LRETURN);
+		if (scan.length() > MAX_CODE_LENGTH)
+			return null;
+		
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			int codeName = pool.utf8("Code");
+			int initName = pool.utf8("<init>");
+			int initDescriptor = pool.utf8("([C)V");
+			int scanName = pool.utf8("scan");
+			int scanDescriptor = pool.utf8("(Ljava/lang/String;II)J");
+			int fieldName = pool.utf8("classTable");
+			int fieldDescriptor = pool.utf8("[C");
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(CLASSFILE_VERSION);
+			pool.write(out);
+			out.writeShort(0x0031); // public final super
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(1);
+			out.writeShort(scannerInterface);
+			out.writeShort(1);
+			out.writeShort(0x0012); // private final
+			out.writeShort(fieldName);
+			out.writeShort(fieldDescriptor);
+			out.writeShort(0);
+			out.writeShort(2);
+			writeMethod(out, initName, initDescriptor, codeName, init, 2, 2);
+			writeMethod(out, scanName, scanDescriptor, codeName, scan, 6, 7);
+			out.writeShort(0);
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/* Returns the label of the block returning the given stop state, creates it if needed */
+	private static int stopLabel(Code code, HashMap<Integer, Integer> stopLabels, int state) {
+		Integer label = stopLabels.get(state);
+		if (label == null) {
+			label = code.newLabel();
+			stopLabels.put(state, label);
+		}
+		return label;
+	}
+	
+	private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName,
+			Code code, int maxStack, int maxLocals) throws IOException
+	{
+		byte[] bytes = code.toByteArray();
+		out.writeShort(0x0001); // public
+		out.writeShort(name);
+		out.writeShort(descriptor);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + bytes.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		out.writeShort(0);
+		out.writeShort(0);
+	}
+	
+	/* Nested classes */
+	
+	/* Constant pool of the generated class */
+	private static class ConstantPool {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final HashMap<String, Integer> entries = new HashMap<>();
+		private int count = 1;
+		
+		/* Adds the entry of the given key unless it exists, returns its index */
+		private int add(String key, int tag, int size, int first, int second, String text) {
+			Integer index = entries.get(key);
+			if (index != null)
+				return index;
+			try {
+				out.writeByte(tag);
+				if (text != null)
+					out.writeUTF(text);
+				else if (size == 2) {
+					out.writeInt(first);
+					out.writeInt(second);
+				} else {
+					out.writeShort(first);
+					if (second >= 0)
+						out.writeShort(second);
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			entries.put(key, count);
+			count += size;
+			return count - size;
+		}
+		
+		int utf8(String text) {
+			return add("U" + text, 1, 1, 0, 0, text);
+		}
+		
+		int classRef(String name) {
+			return add("C" + name, 7, 1, utf8(name), -1, null);
+		}
+		
+		int nameAndType(String name, String descriptor) {
+			return add("N" + name + " " + descriptor, 12, 1, utf8(name), utf8(descriptor), null);
+		}
+		
+		int fieldRef(String owner, String name, String descriptor) {
+			return add("F" + owner + " " + name + " " + descriptor, 9, 1, classRef(owner),
+					nameAndType(name, descriptor), null);
+		}
+		
+		int methodRef(String owner, String name, String descriptor) {
+			return add("M" + owner + " " + name + " " + descriptor, 10, 1, classRef(owner),
+					nameAndType(name, descriptor), null);
+		}
+		
+		int longConstant(long value) {
+			return add("J" + value, 5, 2, (int) (value >>> 32), (int) value, null);
+		}
+		
+		void write(DataOutputStream target) throws IOException {
+			target.writeShort(count);
+			bytes.writeTo(target);
+		}
+	}
+	
+	/* Bytecode of a method with labels, jumps are resolved by toByteArray() */
+	private static class Code {
+		private byte[] code = new byte[256];
+		private int length = 0;
+		private final ArrayList<Integer> labelPositions = new ArrayList<>();
+		// Pending jumps as triples of the opcode position, the offset position and the label
+		private final ArrayList<int[]> jumps = new ArrayList<>();
+		
+		Code op(int opcode) {
+			return u1(opcode);
+		}
+		
+		Code u1(int value) {
+			if (length == code.length)
+				code = Arrays.copyOf(code, 2 * code.length);
+			code[length++] = (byte) value;
+			return this;
+		}
+		
+		Code u2(int value) {
+			return u1(value >>> 8).u1(value);
+		}
+		
+		Code u4(int value) {
+			return u2(value >>> 16).u2(value);
+		}
+		
+		int length() {
+			return length;
+		}
+		
+		int newLabel() {
+			labelPositions.add(-1);
+			return labelPositions.size() - 1;
+		}
+		
+		void bind(int label) {
+			labelPositions.set(label, length);
+		}
+		
+		/* Writes a 4 byte offset from the opcode at the given position to the label */
+		private void offset(int opcodePosition, int label) {
+			jumps.add(new int[] { opcodePosition, length, label });
+			u4(0);
+		}
+		
+		void jump(int label) {
+			int position = length;
+			op(GOTO_W);
+			offset(position, label);
+		}
+		
+		void pushInt(int value) {
+			if (value >= -1 && value <= 5)
+				op(ICONST_0 + value);
+			else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+				op(BIPUSH).u1(value);
+			else
+				op(SIPUSH).u2(value);
+		}
+		
+		private void pad() {
+			while (length % 4 != 0)
+				u1(0);
+		}
+		
+		/* Jumps to labels[value] for the value on the stack, or to the default label */
+		void tableSwitch(int defaultLabel, int[] labels) {
+			int position = length;
+			op(TABLESWITCH);
+			pad();
+			offset(position, defaultLabel);
+			u4(0);
+			u4(labels.length - 1);
+			for (int label : labels)
+				offset(position, label);
+		}
+		
+		/* Jumps to labels[cls] for the class on the stack. The most common label becomes the
+		 * default of a lookupswitch, if that is shorter than a tableswitch. */
+		void classSwitch(int[] labels) {
+			HashMap<Integer, Integer> frequency = new HashMap<>();
+			int common = labels[0];
+			for (int label : labels) {
+				int f = frequency.merge(label, 1, Integer::sum);
+				if (f > frequency.get(common))
+					common = label;
+			}
+			int pairCount = labels.length - frequency.get(common);
+			if (8 * pairCount + 8 >= 4 * labels.length + 12) {
+				tableSwitch(common, labels);
+				return;
+			}
+			int position = length;
+			op(LOOKUPSWITCH);
+			pad();
+			offset(position, common);
+			u4(pairCount);
+			for (int cls = 0; cls < labels.length; ++cls) {
+				if (labels[cls] != common) {
+					u4(cls);
+					offset(position, labels[cls]);
+				}
+			}
+		}
+		
+		byte[] toByteArray() {
+			for (int[] jump : jumps) {
+				int target = labelPositions.get(jump[2]) - jump[0];
+				for (int i = 0; i < 4; ++i)
+					code[jump[1] + i] = (byte) (target >>> (24 - 8 * i));
+			}
+			return Arrays.copyOf(code, length);
+		}
+	}
+	
+	/* Fallback scanner reading the transition table */
+	private static class TableScanner implements DfaScanner {
+		private final DeterministicAutomaton dfa;
+		private final char[] classTable;
+		private final boolean[] stop;
+		
+		TableScanner(DeterministicAutomaton dfa, BitSet stopStates) {
+			this.dfa = dfa;
+			this.classTable = dfa.getAlphabet().getClassTable();
+			this.stop = new boolean[dfa.getStateCount()];
+			for (int state = stopStates.nextSetBit(0); state >= 0; state = stopStates.nextSetBit(state + 1))
+				stop[state] = true;
+		}
+		
+		@Override
+		public long scan(String text, int position, int state) {
+			int length = text.length();
+			while (position < length) {
+				state = dfa.nextByClass(state, classTable[text.charAt(position++)]);
+				if (state == DeterministicAutomaton.DEAD || stop[state])
+					break;
+			}
+			return ((long) position << 32) | (state & 0xFFFFFFFFL);
+		}
+	}
+}
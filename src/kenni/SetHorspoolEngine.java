@@ -0,0 +1,154 @@
+package kenni;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <p>Multi-pattern search engine implementing the Set-Horspool algorithm. A window as long as
+ * the shortest pattern is moved over the text from left to right. The text is read backwards
+ * from the end of the window along a trie of the reversed patterns, which finds all
+ * matches ending there. Then the window is shifted according to the character at its end,
+ * so that no match can be skipped.</p>
+ * <p>
+ * The longer the shortest pattern is, the longer the shifts are, so for dictionaries of long
+ * keywords most of the text is not read at all.</p>
+ * @author Libor
+ *
+ */
+public class SetHorspoolEngine implements ISearchEngine {
+	/* Static fields and constants */
+	private static final int DEAD = -1;
+	
+	/* Private fields */
+	private final int minLength;
+	// Characters are mapped to classes, so that case folding is handled by the tables
+	private final AlphabetPartition alphabet;
+	private final int classCount;
+	// trie[node * classCount + cls] is the child of node over class cls
+	private int[] trie;
+	private int nodeCount;
+	// Sorted indices of the patterns ending in each node, null if there are none
+	private int[][] outputs;
+	private final int[] shift;
+	
+	/* Constructors */
+	
+	/**
+	 * Creates the engine for the given patterns.
+	 * @param patterns Non-empty patterns.
+	 * @param folding Case folding of the patterns.
+	 */
+	public SetHorspoolEngine(String[] patterns, CaseFolding folding) {
+		if (patterns.length == 0)
+			throw new IllegalArgumentException("At least one pattern is required");
+		// Symbols of all pattern characters
+		ArrayList<Symbol> symbols = new ArrayList<>();
+		int min = Integer.MAX_VALUE;
+		for (String pattern : patterns) {
+			if (pattern.length() == 0)
+				throw new IllegalArgumentException("Patterns must not be empty");
+			min = Math.min(min, pattern.length());
+			for (int i = 0; i < pattern.length(); ++i)
+				symbols.add(folding.toSymbol(pattern.charAt(i)));
+		}
+		minLength = min;
+		alphabet = AlphabetPartition.create(symbols);
+		classCount = alphabet.getClassCount();
+		
+		// Build the trie of the reversed patterns
+		trie = new int[16 * classCount];
+		Arrays.fill(trie, DEAD);
+		outputs = new int[16][];
+		nodeCount = 1;
+		for (int p = 0; p < patterns.length; ++p) {
+			int node = 0;
+			for (int i = patterns[p].length() - 1; i >= 0; --i) {
+				int cls = alphabet.classOf(patterns[p].charAt(i));
+				if (trie[node * classCount + cls] == DEAD) {
+					// The trie may be reallocated by newNode()
+					int child = newNode();
+					trie[node * classCount + cls] = child;
+				}
+				node = trie[node * classCount + cls];
+			}
+			addOutput(node, p);
+		}
+		trie = Arrays.copyOf(trie, nodeCount * classCount);
+		outputs = Arrays.copyOf(outputs, nodeCount);
+		
+		// Shift by the nearest occurrence of the class among the last minLength - 1
+		// characters of some pattern, excluding the last character
+		shift = new int[classCount];
+		Arrays.fill(shift, minLength);
+		for (String pattern : patterns) {
+			int length = pattern.length();
+			for (int j = length - minLength; j < length - 1; ++j) {
+				int cls = alphabet.classOf(pattern.charAt(j));
+				shift[cls] = Math.min(shift[cls], length - 1 - j);
+			}
+		}
+	}
+	
+	/* Private methods */
+	
+	private int newNode() {
+		if ((nodeCount + 1) * classCount > trie.length) {
+			int oldLength = trie.length;
+			trie = Arrays.copyOf(trie, 2 * oldLength);
+			Arrays.fill(trie, oldLength, trie.length, DEAD);
+		}
+		if (nodeCount == outputs.length)
+			outputs = Arrays.copyOf(outputs, 2 * outputs.length);
+		return nodeCount++;
+	}
+	
+	private void addOutput(int node, int patternID) {
+		int[] old = outputs[node];
+		if (old == null) {
+			outputs[node] = new int[] { patternID };
+		} else {
+			outputs[node] = Arrays.copyOf(old, old.length + 1);
+			outputs[node][old.length] = patternID;
+		}
+	}
+	
+	/* Public methods */
+	
+	@Override
+	public ArrayList<Pair<Integer>> searchAll(String text) {
+		ArrayList<Pair<Integer>> result = new ArrayList<>();
+		int[] found = new int[8];
+		int length = text.length();
+		int end = minLength;
+		while (end <= length) {
+			// Read the text backwards from the end of the window
+			int foundCount = 0;
+			int node = 0;
+			for (int i = end - 1; i >= 0; --i) {
+				node = trie[node * classCount + alphabet.classOf(text.charAt(i))];
+				if (node == DEAD)
+					break;
+				if (outputs[node] != null) {
+					for (int id : outputs[node]) {
+						if (foundCount == found.length)
+							found = Arrays.copyOf(found, 2 * found.length);
+						found[foundCount++] = id;
+					}
+				}
+			}
+			Arrays.sort(found, 0, foundCount);
+			for (int k = 0; k < foundCount; ++k)
+				result.add(new Pair<Integer>(found[k], end));
+			end += shift[alphabet.classOf(text.charAt(end - 1))];
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the number of nodes of the reversed trie.
+	 * @return
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+}
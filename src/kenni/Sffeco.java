@@ -1,76 +1,562 @@
 package kenni;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.function.Consumer;
 import kenni.BaseAutomaton.State;
 import kenni.IRegularFactory.BeforeInsertedEvent;
 
 public class Sffeco {
 	/* Static fields */
-	private static IRegularFactory defFactory = SimRegularFactory.get();
+	// The union has to be built directly, so that all states are numbered within one automaton
+	private static DirectRegularFactory defFactory = DirectRegularFactory.get();
+	// Larger deterministic automata are not built by the COMPILED_DFA engine
+	private static final int MAX_DFA_STATES = 1 << 16;
 	
 	/* Private fields */
-	// Maps final states to their corresponding branches
 	private String[] patterns;
-	private BaseAutomaton aut;
+	private CaseFolding folding;
+	private boolean usePrefilter;
+	private boolean trim;
+	// Null if the patterns do not allow skipping
+	private Prefilter prefilter;
+	// Null if the automaton is simulated
+	private ISearchEngine engine;
+	// The engine actually used and the reason why
+	private EnginePlanner.Plan plan;
+	// The automaton and its tables are created by prepareAutomaton()
+	private BaseAutomaton aut = null;
 	private BasicSimulator simulator;
-	private HashMap<State, Integer> finalStateToBranchID;
+	// The following arrays are indexed by the indices of the states of aut.
+	// Maps final states to their corresponding branches, -1 for other states
+	private int[] branchIDOfState;
+	// Maps final states to the rank of their pattern, the lower the better. Patterns are ranked by
+	// their length (longest first) and then by their index.
+	private int[] priorityOfState;
+	// The same rank indexed by patterns
+	private int[] rankOfPattern;
+	// Number of pattern characters read in the state, i.e. its distance from the branch start
+	private int[] depthOfState;
+	// Search automata of the patterns compiled in advance, null if they are compiled when needed
+	private BaseAutomaton[] compiledPatterns;
+	// Reversed pattern automata for finding match starts, created when first needed
+	private DeterministicAutomaton[] reversedPatterns;
+	// Statistics of aut, computed when first asked for
+	private AutomatonStatistics statistics = null;
 	
+	/**
+	 * Match semantics supported by {@link Sffeco#search(String, MatchMode)}.
+	 */
+	public enum MatchMode {
+		/** For each position, where some pattern match ends, report the longest such pattern.
+		 * This is the semantics of {@link Sffeco#search(String)}. */
+		LONGEST_AT_END,
+		/** Report all matches of all patterns, matches ending at the same position are
+		 * ordered by pattern index. */
+		ALL,
+		/** Report non-overlapping matches, always the leftmost one and among the leftmost matches
+		 * the longest one. */
+		LEFTMOST_LONGEST,
+		/** Report non-overlapping matches, always the leftmost one and among the leftmost matches
+		 * the one whose pattern comes first in the dictionary. */
+		LEFTMOST_FIRST
+	}
+	
+	/**
+	 * Algorithms, that can be used for searching the patterns.
+	 */
+	public enum Engine {
+		/** Simulation of the union of the pattern automata. */
+		AUTOMATON,
+		/** Set-Horspool algorithm, see {@link SetHorspoolEngine}. Suitable for dictionaries of
+		 * long keywords. */
+		SET_HORSPOOL,
+		/** Wu-Manber algorithm, see {@link WuManberEngine}. Suitable for very large dictionaries
+		 * of short patterns, the automaton is not built unless a leftmost mode is used. */
+		WU_MANBER,
+		/** Aho-Corasick automaton stored in a double-array trie, see {@link DoubleArrayTrie}. */
+		DOUBLE_ARRAY,
+		/** Simulation of the union of the pattern automata flattened into a CompactNfa by
+		 * a SparseSimulator, which does not allocate while reading. */
+		SPARSE_NFA,
+		/** The search automaton determinized and compiled into a class generated at runtime,
+		 * see {@link ScannerCompiler}. Larger automata are scanned by their transition tables
+		 * and automata, whose deterministic version is too large, are simulated. */
+		COMPILED_DFA,
+		/** Bit-parallel Shift-And algorithm, see {@link ShiftAndEngine}. Suitable for a few
+		 * short patterns, at most 64 characters in total. */
+		SHIFT_AND,
+		/** The engine is chosen by {@link EnginePlanner} according to the patterns. */
+		AUTO
+	}
+	
+	/**
+	 * Options used when compiling the patterns into the search automaton.
+	 */
+	public static class Options {
+		private CaseFolding caseFolding = CaseFolding.NONE;
+		private boolean prefilter = true;
+		private Engine engine = Engine.AUTO;
+		private boolean trim = true;
+		
+		/**
+		 * Sets how the characters of the patterns match the characters of the text.
+		 * Defaults to CaseFolding.NONE, i.e. exact matching.
+		 * @param caseFolding
+		 * @return This object.
+		 */
+		public Options setCaseFolding(CaseFolding caseFolding) {
+			if (caseFolding == null)
+				throw new NullPointerException("Case folding must not be null");
+			this.caseFolding = caseFolding;
+			return this;
+		}
+		
+		public CaseFolding getCaseFolding() {
+			return caseFolding;
+		}
+		
+		/**
+		 * Sets whether the search skips the parts of the text, where no pattern can start.
+		 * It does not change the results, defaults to true.
+		 * @param prefilter
+		 * @return This object.
+		 */
+		public Options setPrefilter(boolean prefilter) {
+			this.prefilter = prefilter;
+			return this;
+		}
+		
+		public boolean getPrefilter() {
+			return prefilter;
+		}
+		
+		/**
+		 * Sets the algorithm used by search(String) and by search(String, MatchMode) with
+		 * LONGEST_AT_END and ALL modes. Leftmost modes always simulate the automaton. If the
+		 * engine cannot handle the patterns (e.g. some of them is empty), the automaton is used.
+		 * Defaults to Engine.AUTO, the engine used can be found by {@link Sffeco#getPlan()}.
+		 * @param engine
+		 * @return This object.
+		 */
+		public Options setEngine(Engine engine) {
+			if (engine == null)
+				throw new NullPointerException("Engine must not be null");
+			this.engine = engine;
+			return this;
+		}
+		
+		public Engine getEngine() {
+			return engine;
+		}
+		
+		/**
+		 * Sets whether the unreachable and dead states are removed from the search automaton,
+		 * see {@link Automaton#trim()}. It does not change the results, defaults to true.
+		 * @param trim
+		 * @return This object.
+		 */
+		public Options setTrim(boolean trim) {
+			this.trim = trim;
+			return this;
+		}
+		
+		public boolean getTrim() {
+			return trim;
+		}
+		
+		/* Returns an independent copy of these options */
+		Options copy() {
+			Options result = new Options();
+			result.caseFolding = caseFolding;
+			result.prefilter = prefilter;
+			result.engine = engine;
+			result.trim = trim;
+			return result;
+		}
+	}
 	
 	public Sffeco(String... patterns) {
+		this(new Options(), patterns);
+	}
+	
+	/**
+	 * Creates a searcher for the given patterns compiled with the given options.
+	 * @param options
+	 * @param patterns
+	 */
+	public Sffeco(Options options, String... patterns) {
+		this(options, patterns == null ? new String[0] : patterns, null);
+	}
+	
+	/* Creates a searcher for patterns, whose search automata (see Sfoeco.createSearchAutomaton)
+	 * have already been compiled with the case folding of the options. The automata are
+	 * only read, so they may be shared by several searchers. Engine.AUTO chooses only among
+	 * the engines over the automaton (see EnginePlanner.plan(AutomatonStatistics)). */
+	Sffeco(Options options, String[] patterns, BaseAutomaton[] compiledPatterns) {
+		this.compiledPatterns = compiledPatterns;
+		this.folding = options.getCaseFolding();
 		this.patterns = patterns;
-		this.finalStateToBranchID = new HashMap<>();
-		this.aut = createSearchAutomaton(patterns);
-		simulator = new BasicSimulator(this.aut);
+		this.rankOfPattern = rankPatterns();
+		this.reversedPatterns = new DeterministicAutomaton[this.patterns.length];
+		this.usePrefilter = options.getPrefilter();
+		this.trim = options.getTrim();
+		Engine kind = options.getEngine();
+		if (kind == Engine.AUTO && compiledPatterns != null) {
+			// Only the engines over the automaton use the compiled patterns, the others would
+			// be built from the pattern strings again
+			prepareAutomaton();
+			statistics = AutomatonStatistics.compute(aut);
+			this.plan = EnginePlanner.plan(statistics);
+		} else {
+			this.plan = kind == Engine.AUTO ? EnginePlanner.plan(this.patterns, folding)
+					: new EnginePlanner.Plan(kind, "chosen by the options");
+		}
+		this.engine = createEngine(plan.getEngine());
+		if (engine == null && plan.getEngine() != Engine.AUTOMATON)
+			plan = new EnginePlanner.Plan(Engine.AUTOMATON, plan.getEngine() + " cannot handle the patterns");
+		// With an engine, the automaton is needed only for the leftmost modes
+		if (engine == null)
+			prepareAutomaton();
 	}
-
+	
 	/* Private methods */
 	
+	/* Creates the search automaton, its tables and the own simulator, if it has not been done yet */
+	private synchronized void prepareAutomaton() {
+		if (aut != null)
+			return;
+		aut = createSearchAutomaton(patterns);
+		prefilter = usePrefilter ? createPrefilter() : null;
+		simulator = new BasicSimulator(aut);
+		simulator.setPrefilter(prefilter);
+	}
+	
+	private BasicSimulator getSimulator() {
+		prepareAutomaton();
+		return simulator;
+	}
+	
+	/* Ranks the patterns by their length (longest first) and then by their index */
+	private int[] rankPatterns() {
+		Integer[] order = new Integer[patterns.length];
+		for (int i = 0; i < order.length; ++i)
+			order[i] = i;
+		Arrays.sort(order, (Integer i1, Integer i2) -> {
+			int r = Integer.compare(patterns[i2].length(), patterns[i1].length());
+			return r != 0 ? r : Integer.compare(i1, i2);
+		});
+		int[] rank = new int[patterns.length];
+		for (int i = 0; i < order.length; ++i)
+			rank[order[i]] = i;
+		return rank;
+	}
+	
 	// Creates the search automaton and remembers which final state belongs to which of the
 	// automaton branches.
 	private BaseAutomaton createSearchAutomaton(String[] patterns) {
-		if (patterns == null || patterns.length == 0)
-			EmptyAutomaton.get();
+		if (patterns.length == 0) {
+			BaseAutomaton empty = EmptyAutomaton.get();
+			computeStateTables(empty, new BaseAutomaton[0], new State[0]);
+			return empty;
+		}
 		
 		// Create sfoeco for each pattern
 		final BaseAutomaton[] sourceAuts = new BaseAutomaton[patterns.length];
-		StringBuilder sb = new StringBuilder();
 		for (int i = 0; i < patterns.length; ++i) {
-			BaseAutomaton sfoeco = Sfoeco.createSearchAutomaton(patterns[i], sb.toString());
-			sourceAuts[i] = sfoeco;
-			sb.append("'");
+			sourceAuts[i] = compiledPatterns != null ? compiledPatterns[i]
+					: Sfoeco.createSearchAutomaton(patterns[i], "", folding);
 		}
 		
-		// Create consumer to remember branch id's for final states when creating the union
+		// Create consumer to remember the branch start states when creating the union
+		final State[] branchStarts = new State[patterns.length];
 		Consumer<BeforeInsertedEvent> action = new Consumer<IRegularFactory.BeforeInsertedEvent>() {			
 			@Override
 			public void accept(BeforeInsertedEvent args) {
-				BaseAutomaton branch = args.branch;
-				State branchState = args.branchState;
-				int branchID = args.branchID;
-				State local = args.state;
-				assert(branch.isFinalState(branchState));
-				assert(sourceAuts[branchID] == branch);
-				finalStateToBranchID.put(local, branchID);
+				assert(sourceAuts[args.branchID] == args.branch);
+				if (args.branch.isStartState(args.branchState))
+					branchStarts[args.branchID] = args.state;
 			}
 		};
 		
-		return defFactory.union("", action, true, sourceAuts);
+		// Trimming keeps the indices of the states and every branch start leads to a final
+		// state, so the branch starts stay in the result
+		DirectRegularFactory factory = trim ? DirectRegularFactory.getTrimming() : defFactory;
+		BaseAutomaton result = factory.union("", action, false, sourceAuts);
+		computeStateTables(result, sourceAuts, branchStarts);
+		return result;
+	}
+	
+	/* Creates the prefilter for the first characters of the patterns */
+	private Prefilter createPrefilter() {
+		ArrayList<Symbol> firstSymbols = new ArrayList<>();
+		for (String pattern : patterns) {
+			if (pattern.length() == 0)
+				return null;
+			firstSymbols.add(folding.toSymbol(pattern.charAt(0)));
+		}
+		return Prefilter.create(firstSymbols);
+	}
+	
+	/* Creates the engine of the given kind, null stands for the automaton */
+	private ISearchEngine createEngine(Engine kind) {
+		if (kind == Engine.AUTOMATON || patterns.length == 0)
+			return null;
+		for (String pattern : patterns) {
+			if (pattern.length() == 0)
+				return null;
+		}
+		switch (kind) {
+		case SET_HORSPOOL:
+			return new SetHorspoolEngine(patterns, folding);
+		case WU_MANBER:
+			return new WuManberEngine(patterns, folding);
+		case DOUBLE_ARRAY:
+			return DoubleArrayTrie.create("", patterns, folding);
+		case SPARSE_NFA:
+			return new SparseEngine();
+		case SHIFT_AND:
+			return ShiftAndEngine.fits(patterns) ? new ShiftAndEngine(patterns, folding) : null;
+		case COMPILED_DFA:
+			prepareAutomaton();
+			ArrayList<Set<State>> subsets = new ArrayList<>();
+			DeterministicAutomaton dfa = DeterministicAutomaton.determinize("", aut, MAX_DFA_STATES, subsets);
+			return dfa == null ? null : new CompiledDfaEngine(dfa, subsets);
+		default:
+			return null;
+		}
+	}
+	
+	/* Simulates the search automaton by SparseSimulator, one simulator per thread */
+	private class SparseEngine implements ISearchEngine {
+		private final CompactNfa nfa;
+		// Branch of each compact state, -1 for states that are not final
+		private final int[] branchOfCompact;
+		private final ThreadLocal<SparseSimulator> simulators;
+		
+		SparseEngine() {
+			prepareAutomaton();
+			nfa = new CompactNfa(aut);
+			branchOfCompact = new int[nfa.getStateCount()];
+			for (int i = 0; i < branchOfCompact.length; ++i)
+				branchOfCompact[i] = branchIDOfState[nfa.getOriginalIndex(i)];
+			simulators = ThreadLocal.withInitial(() -> new SparseSimulator(nfa));
+		}
+		
+		@Override
+		public ArrayList<Pair<Integer>> searchAll(String text) {
+			ArrayList<Pair<Integer>> result = new ArrayList<>();
+			SparseSimulator simulator = simulators.get();
+			int[] found = new int[8];
+			simulator.reset(text);
+			while (simulator.hasNext()) {
+				simulator.next();
+				int foundCount = 0;
+				for (int i = 0; i < simulator.getActiveStateCount(); ++i) {
+					int id = branchOfCompact[simulator.getActiveState(i)];
+					if (id >= 0) {
+						if (foundCount == found.length)
+							found = Arrays.copyOf(found, 2 * found.length);
+						found[foundCount++] = id;
+					}
+				}
+				if (foundCount > 1)
+					Arrays.sort(found, 0, foundCount);
+				for (int k = 0; k < foundCount; ++k)
+					result.add(new Pair<Integer>(found[k], simulator.getCurrentPosition()));
+			}
+			return result;
+		}
+	}
+	
+	/* Scans the text by the determinized search automaton, that stops in the states containing
+	 * some final state of a branch */
+	private class CompiledDfaEngine implements ISearchEngine {
+		private final DfaScanner scanner;
+		// Sorted indices of the patterns matched in each state, null if there are none
+		private final int[][] patternsOfState;
+		
+		CompiledDfaEngine(DeterministicAutomaton dfa, ArrayList<Set<State>> subsets) {
+			patternsOfState = new int[dfa.getStateCount()][];
+			BitSet stopStates = new BitSet();
+			for (int state = 0; state < patternsOfState.length; ++state) {
+				TreeSet<Integer> ids = new TreeSet<>();
+				for (State nfaState : subsets.get(state)) {
+					if (branchIDOfState[nfaState.index] >= 0)
+						ids.add(branchIDOfState[nfaState.index]);
+				}
+				if (ids.isEmpty())
+					continue;
+				stopStates.set(state);
+				patternsOfState[state] = new int[ids.size()];
+				int i = 0;
+				for (int id : ids)
+					patternsOfState[state][i++] = id;
+			}
+			scanner = ScannerCompiler.compile(dfa, stopStates);
+		}
+		
+		@Override
+		public ArrayList<Pair<Integer>> searchAll(String text) {
+			ArrayList<Pair<Integer>> result = new ArrayList<>();
+			int position = 0;
+			int state = 0;
+			while (position < text.length()) {
+				long stop = scanner.scan(text, position, state);
+				position = (int) (stop >>> 32);
+				state = (int) stop;
+				if (state == DeterministicAutomaton.DEAD)
+					break;
+				if (patternsOfState[state] != null) {
+					for (int id : patternsOfState[state])
+						result.add(new Pair<Integer>(id, position));
+				}
+			}
+			return result;
+		}
+	}
+	
+	/* Keeps only the match of the best ranked pattern for each end position */
+	private ArrayList<Pair<Integer>> selectLongest(ArrayList<Pair<Integer>> all) {
+		ArrayList<Pair<Integer>> result = new ArrayList<>();
+		for (Pair<Integer> match : all) {
+			int last = result.size() - 1;
+			if (last >= 0 && result.get(last).second.equals(match.second)) {
+				if (rankOfPattern[match.first] < rankOfPattern[result.get(last).first])
+					result.set(last, match);
+			} else
+				result.add(match);
+		}
+		return result;
+	}
+	
+	/* Precomputes the branch, priority and depth of each state of the search automaton */
+	private void computeStateTables(BaseAutomaton result, BaseAutomaton[] sourceAuts, State[] branchStarts) {
+		int bound = result.getStateIndexBound();
+		branchIDOfState = new int[bound];
+		priorityOfState = new int[bound];
+		depthOfState = new int[bound];
+		Arrays.fill(branchIDOfState, -1);
+		Arrays.fill(priorityOfState, Integer.MAX_VALUE);
+		Arrays.fill(depthOfState, -1);
+		
+		// Walk the backbone of each branch, the wild card loop is skipped
+		for (int i = 0; i < branchStarts.length; ++i) {
+			if (branchStarts[i] == null)
+				continue;
+			ArrayDeque<State> queue = new ArrayDeque<>();
+			depthOfState[branchStarts[i].index] = 0;
+			queue.add(branchStarts[i]);
+			while (!queue.isEmpty()) {
+				State state = queue.poll();
+				if (result.isFinalState(state)) {
+					branchIDOfState[state.index] = i;
+					priorityOfState[state.index] = rankOfPattern[i];
+				}
+				int depth = depthOfState[state.index];
+				if (depth >= patterns[i].length())
+					continue;
+				for (State follow : result.getTransition(state, folding.toSymbol(patterns[i].charAt(depth)))) {
+					if (depthOfState[follow.index] < 0) {
+						depthOfState[follow.index] = depth + 1;
+						queue.add(follow);
+					}
+				}
+			}
+		}
 	}
 	
 	/* Expects a final state of automaton aut. Returns the branch id for this state. */
 	private int getBranchIDForFinal(State state) {
 		assert(state != null);
 		assert(state.parent.isFinalState(state));
-		assert(finalStateToBranchID.containsKey(state));
-		return finalStateToBranchID.get(state);	
-		
+		assert(branchIDOfState[state.index] >= 0);
+		return branchIDOfState[state.index];
+	}
+	
+	/* Returns the best active final state, or null if there is none */
+	private State getBestFinal(BasicSimulator simulator) {
+		State best = null;
+		for (State state : simulator.getActiveStates()) {
+			if (state.parent == aut && branchIDOfState[state.index] >= 0
+					&& (best == null || priorityOfState[state.index] < priorityOfState[best.index]))
+				best = state;
+		}
+		return best;
+	}
+	
+	/* Adds matches of all active final states ordered by pattern index */
+	private void addAllMatches(BasicSimulator simulator, ArrayList<Pair<Integer>> result) {
+		ArrayList<State> finalStates = simulator.getFinalStates();
+		int[] ids = new int[finalStates.size()];
+		for (int i = 0; i < ids.length; ++i)
+			ids[i] = getBranchIDForFinal(finalStates.get(i));
+		Arrays.sort(ids);
+		for (int id : ids)
+			result.add(new Pair<Integer>(id, simulator.getCurrentPosition()));
+	}
+	
+	/* Implements the leftmost match modes. Keeps the best match found so far as a candidate and
+	 * reports it as soon as no partial match can start at or before the candidate's start.
+	 * Then the search continues right after the reported match. */
+	private ArrayList<Pair<Integer>> searchLeftmost(String text, BasicSimulator simulator, boolean longest) {
+		ArrayList<Pair<Integer>> result = new ArrayList<>();
+		int candidateID = -1;
+		int candidateStart = 0;
+		int candidateEnd = 0;
+		simulator.reset(text);
+		while (simulator.hasNext()) {
+			simulator.next();
+			int position = simulator.getCurrentPosition();
+			int minPartialStart = Integer.MAX_VALUE;
+			for (State state : simulator.getActiveStates()) {
+				if (state.parent != aut)
+					continue;
+				int id = branchIDOfState[state.index];
+				if (id >= 0) {
+					int start = position - patterns[id].length();
+					boolean better = candidateID < 0 || start < candidateStart;
+					if (!better && start == candidateStart) {
+						if (longest)
+							better = rankOfPattern[id] < rankOfPattern[candidateID];
+						else
+							better = id < candidateID;
+					}
+					if (better) {
+						candidateID = id;
+						candidateStart = start;
+						candidateEnd = position;
+					}
+				} else if (depthOfState[state.index] > 0)
+					minPartialStart = Math.min(minPartialStart, position - depthOfState[state.index]);
+			}
+			boolean finished = !simulator.hasNext();
+			if (candidateID >= 0 && (finished || minPartialStart > candidateStart)) {
+				result.add(new Pair<Integer>(candidateID, candidateEnd));
+				candidateID = -1;
+				// Continue right after the match, so that matches do not overlap
+				if (candidateEnd < position || !finished)
+					simulator.reset(text, candidateEnd);
+			}
+		}
+		return result;
+	}
+	
+	/* Returns the deterministic automaton of the reversed pattern with the given index */
+	private synchronized DeterministicAutomaton getReversedPattern(int patternID) {
+		if (reversedPatterns[patternID] == null) {
+			reversedPatterns[patternID] = Sfoeco.reversePattern(
+					Sfoeco.createPatternAutomaton(patterns[patternID], "", folding));
+		}
+		return reversedPatterns[patternID];
 	}
 	
 	/* Public methods */
-
+	
 	/**
 	 * Searches for the underlying set of patterns in the given text.
 	 * @param text The text to be searched in.
@@ -79,28 +565,137 @@ public class Sffeco {
 	 * the given text, where this match ends.
 	 */
 	public ArrayList<Pair<Integer>> search(String text) {
+		return search(text, MatchMode.LONGEST_AT_END);
+	}
+	
+	/**
+	 * Searches for the underlying set of patterns in the given text using the given match semantics.
+	 * @param text The text to be searched in.
+	 * @param mode The match semantics.
+	 * @return An ArrayList of pairs of integers, where the first number indicates the index
+	 * of the matched pattern and the second number is the position in the given text, where this
+	 * match ends. The pairs are sorted by the end positions.
+	 */
+	public ArrayList<Pair<Integer>> search(String text, MatchMode mode) {
+		return search(text, mode, needsSimulator(mode) ? getSimulator() : null);
+	}
+	
+	/**
+	 * Searches for the underlying set of patterns in the given text and finds both bounds of
+	 * each match. The matches are found by search(String, MatchMode), then the start of each of
+	 * them is found by running the reversed automaton of its pattern backwards from its end.
+	 * The patterns are strings, so each backward run reads at most the length of the pattern.
+	 * @param text The text to be searched in.
+	 * @param mode The match semantics.
+	 * @return An ArrayList of matches sorted by their end positions.
+	 */
+	public ArrayList<Match> searchSpans(String text, MatchMode mode) {
+		ArrayList<Match> result = new ArrayList<>();
+		for (Pair<Integer> match : search(text, mode)) {
+			int start = getReversedPattern(match.first).matchBackward(text, match.second);
+			assert(start >= 0);
+			result.add(new Match(match.first, start, match.second));
+		}
+		return result;
+	}
+	
+	public ArrayList<Match> searchSpans(String text) {
+		return searchSpans(text, MatchMode.LONGEST_AT_END);
+	}
+	
+	public String[] getPatterns() {
+		return patterns.clone();
+	}
+	
+	public CaseFolding getCaseFolding() {
+		return folding;
+	}
+	
+	/**
+	 * Returns the engine used by search(String) and by search(String, MatchMode) with
+	 * LONGEST_AT_END and ALL modes together with the reason of its choice. It is never
+	 * Engine.AUTO and if the requested engine cannot handle the patterns, it is Engine.AUTOMATON.
+	 * @return
+	 */
+	public EnginePlanner.Plan getPlan() {
+		return plan;
+	}
+	
+	/**
+	 * Returns the statistics of the search automaton, it is built if it has not been yet.
+	 * The statistics are computed only once.
+	 * @return
+	 */
+	public synchronized AutomatonStatistics getStatistics() {
+		if (statistics == null) {
+			prepareAutomaton();
+			statistics = AutomatonStatistics.compute(aut);
+		}
+		return statistics;
+	}
+	
+	/**
+	 * Creates a scanner of streams delivered in fragments, which reports the same matches as
+	 * search(String, MatchMode.ALL) labelled by the pattern indices, except for the matches
+	 * of the empty pattern at the start of the stream. The automaton is built if it has not
+	 * been yet.
+	 * @return
+	 */
+	public StreamScanner createStreamScanner() {
+		prepareAutomaton();
+		return new StreamScanner(aut, branchIDOfState, MAX_DFA_STATES);
+	}
+	
+	/* Package private methods */
+	
+	/* Returns the search automaton of the pattern with the given index compiled in advance,
+	 * or null if the patterns are compiled when needed */
+	BaseAutomaton getCompiledPattern(int index) {
+		return compiledPatterns == null ? null : compiledPatterns[index];
+	}
+	
+	/* Creates a new simulator over the underlying automaton. The automaton itself is
+	 * only read during simulation, so it may be shared by any number of simulators. */
+	BasicSimulator createSimulator() {
+		prepareAutomaton();
+		BasicSimulator result = new BasicSimulator(aut);
+		result.setPrefilter(prefilter);
+		return result;
+	}
+	
+	/* Determines whether searching with the given mode simulates the automaton, i.e. whether
+	 * search(String, MatchMode, BasicSimulator) needs a simulator. */
+	boolean needsSimulator(MatchMode mode) {
+		return engine == null || mode == MatchMode.LEFTMOST_LONGEST || mode == MatchMode.LEFTMOST_FIRST;
+	}
+	
+	/* Same as search(String), but uses the given simulator instead of the own one. */
+	ArrayList<Pair<Integer>> search(String text, BasicSimulator simulator) {
+		return search(text, MatchMode.LONGEST_AT_END, simulator);
+	}
+	
+	/* Same as search(String, MatchMode), but uses the given simulator instead of the own one. */
+	ArrayList<Pair<Integer>> search(String text, MatchMode mode, BasicSimulator simulator) {
+		if (mode == MatchMode.LEFTMOST_LONGEST)
+			return searchLeftmost(text, simulator, true);
+		else if (mode == MatchMode.LEFTMOST_FIRST)
+			return searchLeftmost(text, simulator, false);
+		else if (engine != null && mode == MatchMode.ALL)
+			return engine.searchAll(text);
+		else if (engine != null)
+			return selectLongest(engine.searchAll(text));
+		
 		ArrayList<Pair<Integer>> result = new ArrayList<>();
 		simulator.reset(text);
 		while (simulator.hasNext()) {
 			simulator.next();
-
-			if (simulator.isFinal()) {
-				ArrayList<State> finalStates = simulator.getFinalStates();
+			if (mode == MatchMode.ALL) {
+				addAllMatches(simulator, result);
+			} else {
 				// Get the longest match
-				if (finalStates.size() > 1) {
-					finalStates.sort(new Comparator<State>() {
-						@Override
-						public int compare(State s1, State s2) {
-							int id1 = getBranchIDForFinal(s1);
-							int id2 = getBranchIDForFinal(s2);
-							return -Integer.valueOf(patterns[id1].length())
-								.compareTo(Integer.valueOf(patterns[id2].length()));
-						}
-					});
-				}
-				
-				int id = getBranchIDForFinal(finalStates.get(0));
-				result.add(new Pair<Integer>(id, simulator.getCurrentPosition()));
+				State best = getBestFinal(simulator);
+				if (best != null)
+					result.add(new Pair<Integer>(getBranchIDForFinal(best), simulator.getCurrentPosition()));
 			}
 		}
 		return result;
@@ -108,7 +703,7 @@ public class Sffeco {
 	
 	/* Methods for testing */
 	public String dumpAutomaton() {
-		return simulator.dumpAutomaton();
+		return getSimulator().dumpAutomaton();
 	}
 	
 
@@ -1,32 +1,108 @@
 package kenni;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class Sfoeco extends BasicSimulator {
 	
 	/* Private fields */
 	private String mPattern;
-
+	private CaseFolding mFolding;
+	// Automaton of the pattern itself, without the search loop
+	private BaseAutomaton mPatternAutomaton;
+	// Symbols of the backbone and their bit masks for approximate search, created when first needed
+	private Symbol[] mBackbone = null;
+	private AlphabetPartition mBackboneAlphabet = null;
+	private long[] mBackboneMasks = null;
+	// Flattened pattern automaton for spans and approximate search of automaton patterns,
+	// created when first needed
+	private CompactNfa mPatternNfa = null;
+	
 	/* Constructors and helper methods */
 	
 	public Sfoeco(String pattern) {		
-		super(createSearchAutomaton(pattern, ""));
+		this(pattern, CaseFolding.NONE);
+	}
+	
+	/**
+	 * Creates a searcher for the given pattern, that matches characters according to the given
+	 * case folding. The text is searched as it is, folding is compiled into the automaton.
+	 * @param pattern
+	 * @param folding
+	 */
+	public Sfoeco(String pattern, CaseFolding folding) {
+		super(createSearchAutomaton(pattern, "", folding));
 		mPattern = pattern;
+		mFolding = folding;
+		mPatternAutomaton = createPatternAutomaton(pattern, "", folding);
+		setPrefilter(Prefilter.forPattern(mPatternAutomaton));
+	}
+	
+	/**
+	 * Creates a searcher for an arbitrary pattern automaton, e.g. one constructed by
+	 * DirectRegularFactory, that may contain wild cards and iterations.
+	 * @param pattern The automaton accepting the pattern. Its state must not be changed
+	 * afterwards.
+	 */
+	public Sfoeco(BaseAutomaton pattern) {
+		super(DirectRegularFactory.get().concatenation("", createSearchLoop(), pattern));
+		mPattern = null;
+		mFolding = CaseFolding.NONE;
+		mPatternAutomaton = pattern;
+		setPrefilter(Prefilter.forPattern(mPatternAutomaton));
 	}
 	
 	static public Automaton createSearchAutomaton(String pattern, String name) {
-		Automaton aut = new Automaton(name);
+		return createSearchAutomaton(pattern, name, CaseFolding.NONE);
+	}
+	
+	/**
+	 * Creates the search automaton of the given pattern, whose transitions match all characters
+	 * folding to the same character as the corresponding pattern character.
+	 * @param pattern
+	 * @param name
+	 * @param folding
+	 * @return
+	 */
+	static public Automaton createSearchAutomaton(String pattern, String name, CaseFolding folding) {
+		Automaton aut = createPatternAutomaton(pattern, name, folding);
 		if (pattern == null || pattern.length() == 0)
 			return aut;
 		
-		AutomatonBuilder builder = new AutomatonBuilder(aut);
-		
 		// Insert search loop
+		AutomatonBuilder builder = new AutomatonBuilder(aut);
 		builder.insertTransition("0", Symbol.WILD_CARD, "0");
+		return aut;
+	}
+	
+	/**
+	 * Creates the automaton accepting just the given pattern, i.e. the backbone of the
+	 * search automaton.
+	 * @param pattern
+	 * @param name
+	 * @return
+	 */
+	static public Automaton createPatternAutomaton(String pattern, String name) {
+		return createPatternAutomaton(pattern, name, CaseFolding.NONE);
+	}
+	
+	/**
+	 * Creates the automaton accepting just the given pattern with the given case folding.
+	 * @param pattern
+	 * @param name
+	 * @param folding
+	 * @return
+	 */
+	static public Automaton createPatternAutomaton(String pattern, String name, CaseFolding folding) {
+		Automaton aut = new Automaton(name);
+		if (pattern == null || pattern.length() == 0)
+			return aut;
+		
+		AutomatonBuilder builder = new AutomatonBuilder(aut);
 		
 		// Create the backbone
 		for (int i = 0; i < pattern.length(); ++i) {
-			builder.insertTransition(String.valueOf(i), Symbol.getSymbol(pattern.charAt(i)),
+			builder.insertTransition(String.valueOf(i), folding.toSymbol(pattern.charAt(i)),
 					String.valueOf(i + 1));
 		}
 		
@@ -37,6 +113,15 @@ public class Sfoeco extends BasicSimulator {
 		return aut;
 	}
 	
+	/* Creates an automaton accepting any string, that is prepended to patterns to search for them */
+	static private Automaton createSearchLoop() {
+		AutomatonBuilder builder = new AutomatonBuilder(new Automaton());
+		builder.insertTransition("0", Symbol.WILD_CARD, "0");
+		builder.setStartState("0");
+		builder.markAsFinal("0");
+		return builder.getAutomaton();
+	}
+	
 	/* Public methods */
 	
 	/**
@@ -56,7 +141,332 @@ public class Sfoeco extends BasicSimulator {
 		return result;
 	}
 	
+	/**
+	 * <p>Searches the given text for the occurrences of the underlying pattern and finds both
+	 * of their bounds in a single forward pass. Like in the Pike VM, every active state of
+	 * the pattern automaton is a thread remembering where its match started, a new thread is
+	 * started at each position and a state reached by several threads keeps the one, that
+	 * started first.</p>
+	 * <p>
+	 * The search takes O(n * (s + t)) time, where s and t are the numbers of the states and
+	 * the transitions of the pattern automaton, regardless of the lengths of the matches.</p>
+	 * @param text The text to be searched in.
+	 * @return An ArrayList of pairs of the start and end positions of each match. For each end
+	 * position, the longest match (i.e. the leftmost start) is reported. The array is sorted by
+	 * the end positions.
+	 */
+	public ArrayList<Pair<Integer>> searchSpans(String text) {
+		ArrayList<Pair<Integer>> result = new ArrayList<>();
+		CompactNfa nfa = getPatternNfa();
+		if (nfa.getStartState() < 0)
+			return result;
+		int n = nfa.getStateCount();
+		// Active states ordered by the starts of their threads, which are kept in starts
+		int[] current = new int[n];
+		int[] currentStarts = new int[n];
+		int[] next = new int[n];
+		int[] nextStarts = new int[n];
+		// mark[s] == generation iff s has been added to the list being built
+		int[] mark = new int[n];
+		int[] stack = new int[n];
+		int generation = 1;
+		int count = addThread(nfa, nfa.getStartState(), 0, current, 0, currentStarts, mark, generation, stack);
+		reportFirstFinal(nfa, current, count, currentStarts, 0, result);
+		for (int i = 0; i < text.length(); ++i) {
+			int cls = nfa.getAlphabet().classOf(text.charAt(i));
+			int nextCount = 0;
+			++generation;
+			for (int k = 0; k < count; ++k) {
+				int state = current[k];
+				int start = currentStarts[state];
+				for (int t = nfa.firstTransition(state, cls); t < nfa.transitionEnd(state)
+						&& nfa.transitionClass(t) == cls; ++t) {
+					nextCount = addThread(nfa, nfa.transitionTarget(t), start, next, nextCount,
+							nextStarts, mark, generation, stack);
+				}
+				for (int t = nfa.wildStart(state); t < nfa.wildEnd(state); ++t) {
+					nextCount = addThread(nfa, nfa.wildTarget(t), start, next, nextCount,
+							nextStarts, mark, generation, stack);
+				}
+			}
+			// The thread of a match starting after the character
+			nextCount = addThread(nfa, nfa.getStartState(), i + 1, next, nextCount, nextStarts,
+					mark, generation, stack);
+			reportFirstFinal(nfa, next, nextCount, nextStarts, i + 1, result);
+			int[] swap = current;
+			current = next;
+			next = swap;
+			swap = currentStarts;
+			currentStarts = nextStarts;
+			nextStarts = swap;
+			count = nextCount;
+		}
+		return result;
+	}
+	
+	/**
+	 * <p>Searches the given text for the approximate occurrences of the underlying pattern, i.e.
+	 * for substrings within the edit distance maxErrors from the pattern. Substitutions,
+	 * insertions and deletions of a single character count as one error each.</p>
+	 * <p>
+	 * Patterns of at most 64 characters are searched by the bit-parallel algorithm of Wu and
+	 * Manber in O(n * maxErrors) time, longer ones by the dynamic programming with Ukkonen's
+	 * cut-off, which is O(n * maxErrors) on average. Pattern automata are searched by the
+	 * dynamic programming over their states in O(n * (t + s * maxErrors)) time, where t and s
+	 * are the numbers of their transitions and states.</p>
+	 * @param text The text to be searched in.
+	 * @param maxErrors The highest allowed number of errors. For a string pattern, it has to be
+	 * lower than the length of the pattern.
+	 * @return An ArrayList of pairs of the end position of each match and its edit distance.
+	 * For each end position, the lowest distance is reported. The array is sorted by the end
+	 * positions.
+	 */
+	public ArrayList<Pair<Integer>> searchApproximate(String text, int maxErrors) {
+		if (mPattern == null) {
+			if (maxErrors < 0)
+				throw new IllegalArgumentException("The number of errors must not be negative");
+			return searchAutomaton(text, maxErrors);
+		}
+		if (maxErrors < 0 || maxErrors >= mPattern.length())
+			throw new IllegalArgumentException("The number of errors has to be between 0 and "
+					+ (mPattern.length() - 1));
+		prepareBackbone();
+		if (mBackbone.length <= 64)
+			return searchBitParallel(text, maxErrors);
+		else
+			return searchCutOff(text, maxErrors);
+	}
+	
+	/**
+	 * Returns the pattern string, or null if this searcher was created for a pattern automaton.
+	 * @return
+	 */
 	public String getPattern() {
 		return mPattern;
 	}
+	
+	public CaseFolding getCaseFolding() {
+		return mFolding;
+	}
+	
+	/* Private methods */
+	
+	/* Folds the characters of the pattern into the symbols of the backbone, so that approximate
+	 * search respects the case folding of the pattern. */
+	private synchronized void prepareBackbone() {
+		if (mBackbone != null)
+			return;
+		final Symbol[] backbone = new Symbol[mPattern.length()];
+		for (int i = 0; i < backbone.length; ++i)
+			backbone[i] = mFolding.toSymbol(mPattern.charAt(i));
+		
+		// Bit i of the mask of a class is set, iff the i-th symbol matches the class
+		AlphabetPartition alphabet = AlphabetPartition.create(Arrays.asList(backbone));
+		long[] masks = new long[alphabet.getClassCount()];
+		for (int cls = 0; cls < masks.length; ++cls) {
+			char c = alphabet.getRepresentative(cls);
+			for (int i = 0; i < backbone.length && i < 64; ++i) {
+				if (backbone[i].matches(c))
+					masks[cls] |= 1L << i;
+			}
+		}
+		mBackboneAlphabet = alphabet;
+		mBackboneMasks = masks;
+		mBackbone = backbone;
+	}
+	
+	/* Wu-Manber extension of Shift-And. Bit i of states[d] is set, iff the first i + 1 symbols
+	 * of the pattern match a suffix of the text read so far with at most d errors. */
+	private ArrayList<Pair<Integer>> searchBitParallel(String text, int maxErrors) {
+		ArrayList<Pair<Integer>> result = new ArrayList<>();
+		long[] states = new long[maxErrors + 1];
+		for (int d = 0; d <= maxErrors; ++d)
+			states[d] = (1L << d) - 1;
+		long finalBit = 1L << (mBackbone.length - 1);
+		for (int j = 0; j < text.length(); ++j) {
+			long mask = mBackboneMasks[mBackboneAlphabet.classOf(text.charAt(j))];
+			long previousOld = states[0];
+			states[0] = ((states[0] << 1) | 1) & mask;
+			int distance = (states[0] & finalBit) != 0 ? 0 : -1;
+			for (int d = 1; d <= maxErrors; ++d) {
+				long old = states[d];
+				states[d] = (((old << 1) | 1) & mask)	// match
+						| (previousOld << 1) | 1		// substitution
+						| previousOld					// insertion
+						| (states[d - 1] << 1);			// deletion
+				previousOld = old;
+				if (distance < 0 && (states[d] & finalBit) != 0)
+					distance = d;
+			}
+			if (distance >= 0)
+				result.add(new Pair<Integer>(j + 1, distance));
+		}
+		return result;
+	}
+	
+	/* Dynamic programming over the columns of the edit distance matrix. Only the rows up to the
+	 * last one with a value not exceeding maxErrors are computed, the others are known to be
+	 * higher. */
+	private ArrayList<Pair<Integer>> searchCutOff(String text, int maxErrors) {
+		ArrayList<Pair<Integer>> result = new ArrayList<>();
+		int m = mBackbone.length;
+		int[] column = new int[m + 1];
+		for (int i = 0; i <= m; ++i)
+			column[i] = i;
+		int lastActive = maxErrors;
+		for (int j = 0; j < text.length(); ++j) {
+			char c = text.charAt(j);
+			int top = Math.min(lastActive + 1, m);
+			int diagonal = 0;
+			int left = 0;
+			for (int i = 1; i <= top; ++i) {
+				int old = i <= lastActive ? column[i] : maxErrors + 1;
+				int value = mBackbone[i - 1].matches(c) ? diagonal
+						: 1 + Math.min(diagonal, Math.min(old, left));
+				column[i] = value;
+				diagonal = old;
+				left = value;
+			}
+			lastActive = top;
+			while (column[lastActive] > maxErrors)
+				--lastActive;
+			if (lastActive == m)
+				result.add(new Pair<Integer>(j + 1, column[m]));
+		}
+		return result;
+	}
+	
+	/* Dynamic programming over the states of the pattern automaton. costs[s] is the lowest
+	 * number of errors, with which a suffix of the text read so far leads from the start state
+	 * to s, values above maxErrors are not distinguished. */
+	private ArrayList<Pair<Integer>> searchAutomaton(String text, int maxErrors) {
+		ArrayList<Pair<Integer>> result = new ArrayList<>();
+		CompactNfa nfa = getPatternNfa();
+		int start = nfa.getStartState();
+		if (start < 0)
+			return result;
+		int n = nfa.getStateCount();
+		int[] costs = new int[n];
+		int[] next = new int[n];
+		int[] stack = new int[n];
+		Arrays.fill(costs, maxErrors + 1);
+		costs[start] = 0;
+		closeCosts(nfa, costs, stack, maxErrors);
+		for (int j = 0; j < text.length(); ++j) {
+			int cls = nfa.getAlphabet().classOf(text.charAt(j));
+			Arrays.fill(next, maxErrors + 1);
+			for (int s = 0; s < n; ++s) {
+				int cost = costs[s];
+				if (cost > maxErrors)
+					continue;
+				// Insertion, the character is skipped
+				next[s] = Math.min(next[s], cost + 1);
+				// Match or substitution
+				for (int t = nfa.firstTransition(s, 0); t < nfa.transitionEnd(s); ++t) {
+					int target = nfa.transitionTarget(t);
+					int value = nfa.transitionClass(t) == cls ? cost : cost + 1;
+					next[target] = Math.min(next[target], value);
+				}
+				for (int t = nfa.wildStart(s); t < nfa.wildEnd(s); ++t)
+					next[nfa.wildTarget(t)] = Math.min(next[nfa.wildTarget(t)], cost);
+			}
+			// A match may start anywhere
+			next[start] = 0;
+			closeCosts(nfa, next, stack, maxErrors);
+			int distance = maxErrors + 1;
+			for (int s = 0; s < n; ++s) {
+				if (nfa.isFinal(s))
+					distance = Math.min(distance, next[s]);
+			}
+			if (distance <= maxErrors)
+				result.add(new Pair<Integer>(j + 1, distance));
+			int[] swap = costs;
+			costs = next;
+			next = swap;
+		}
+		return result;
+	}
+	
+	/* Propagates the costs along epsilon transitions (free) and along the other transitions
+	 * without reading a character (deletions, one error each). Costs are processed in the
+	 * ascending order, so each state is final once its cost is processed. */
+	private static void closeCosts(CompactNfa nfa, int[] costs, int[] stack, int maxErrors) {
+		for (int cost = 0; cost <= maxErrors; ++cost) {
+			int top = 0;
+			for (int s = 0; s < costs.length; ++s) {
+				if (costs[s] == cost)
+					stack[top++] = s;
+			}
+			while (top > 0) {
+				int s = stack[--top];
+				for (int t = nfa.epsilonStart(s); t < nfa.epsilonEnd(s); ++t) {
+					int target = nfa.epsilonTarget(t);
+					if (costs[target] > cost) {
+						costs[target] = cost;
+						stack[top++] = target;
+					}
+				}
+				if (cost == maxErrors)
+					continue;
+				for (int t = nfa.firstTransition(s, 0); t < nfa.transitionEnd(s); ++t)
+					costs[nfa.transitionTarget(t)] = Math.min(costs[nfa.transitionTarget(t)], cost + 1);
+				for (int t = nfa.wildStart(s); t < nfa.wildEnd(s); ++t)
+					costs[nfa.wildTarget(t)] = Math.min(costs[nfa.wildTarget(t)], cost + 1);
+			}
+		}
+	}
+	
+	/* Reports the match ending at the given position, if some state of the list is final.
+	 * The first final state belongs to the thread, that started first. */
+	private static void reportFirstFinal(CompactNfa nfa, int[] list, int count, int[] starts, int end,
+			ArrayList<Pair<Integer>> result)
+	{
+		for (int k = 0; k < count; ++k) {
+			if (nfa.isFinal(list[k])) {
+				result.add(new Pair<Integer>(starts[list[k]], end));
+				return;
+			}
+		}
+	}
+	
+	/* Appends the state and its epsilon closure to the list, unless they are there already.
+	 * Returns the new size of the list. */
+	private static int addThread(CompactNfa nfa, int state, int start, int[] list, int count,
+			int[] starts, int[] mark, int generation, int[] stack)
+	{
+		if (mark[state] == generation)
+			return count;
+		mark[state] = generation;
+		int top = 0;
+		stack[top++] = state;
+		while (top > 0) {
+			int s = stack[--top];
+			starts[s] = start;
+			list[count++] = s;
+			for (int t = nfa.epsilonStart(s); t < nfa.epsilonEnd(s); ++t) {
+				int target = nfa.epsilonTarget(t);
+				if (mark[target] != generation) {
+					mark[target] = generation;
+					stack[top++] = target;
+				}
+			}
+		}
+		return count;
+	}
+	
+	private synchronized CompactNfa getPatternNfa() {
+		if (mPatternNfa == null)
+			mPatternNfa = new CompactNfa(mPatternAutomaton);
+		return mPatternNfa;
+	}
+	
+	/* Package private methods */
+	
+	/* Creates the deterministic automaton of the reversed pattern */
+	static DeterministicAutomaton reversePattern(BaseAutomaton pattern) {
+		if (pattern.getStartState() == null)
+			return DeterministicAutomaton.determinize("", EmptyAutomaton.get());
+		BaseAutomaton reversed = DirectRegularFactory.get().reversal("", pattern);
+		return DeterministicAutomaton.determinize("", reversed);
+	}
 }
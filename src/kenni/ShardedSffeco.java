@@ -0,0 +1,326 @@
+package kenni;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import kenni.Sffeco.MatchMode;
+
+/**
+ * <p>Dictionary split into several Sffeco shards, which are searched in parallel. Each shard
+ * is compiled separately, so it can get its own engine (see EnginePlanner) and a smaller
+ * automaton, and the shards of one text are searched by the tasks of a ForkJoinPool.</p>
+ * <p>
+ * The results are merged back into the indices of the original patterns and are the same
+ * as the results of one Sffeco over all the patterns for every MatchMode. The leftmost modes
+ * are derived from all matches of the shards, so they read the text once per shard too.</p>
+ * <p>
+ * The searcher can be used by several threads at once, every thread gets its own simulators.</p>
+ * @author Libor
+ *
+ */
+public class ShardedSffeco {
+	/* Private fields */
+	private final String[] patterns;
+	private final Sffeco[] shards;
+	// Indices of the patterns of each shard in ascending order, so that the order of the
+	// matches of a shard is kept by the mapping
+	private final int[][] patternIDs;
+	private final ForkJoinPool pool;
+	private final ArrayList<ThreadLocal<BasicSimulator>> simulators = new ArrayList<>();
+	
+	/**
+	 * How the patterns are distributed among the shards.
+	 */
+	public enum Partitioning {
+		/** Patterns starting with the same (folded) character are put into the same shard and
+		 * the groups are balanced by their total length. Each shard then has fewer first
+		 * characters, which makes its prefilter skip more. */
+		BY_FIRST_CHARACTER,
+		/** Patterns are sorted by their length and cut into shards of the same total length.
+		 * Each shard then has patterns of similar length, which allows longer shifts. */
+		BY_LENGTH
+	}
+	
+	/* Constructors */
+	
+	/**
+	 * Creates the shards searched by the common ForkJoinPool.
+	 * @param options Options of every shard.
+	 * @param shardCount Maximum number of shards, there are fewer shards if the patterns
+	 * cannot be distributed among all of them.
+	 * @param partitioning
+	 * @param patterns
+	 */
+	public ShardedSffeco(Sffeco.Options options, int shardCount, Partitioning partitioning, String... patterns) {
+		this(options, shardCount, partitioning, ForkJoinPool.commonPool(), patterns);
+	}
+	
+	/**
+	 * Creates the shards searched by the given pool.
+	 * @param options Options of every shard.
+	 * @param shardCount Maximum number of shards, there are fewer shards if the patterns
+	 * cannot be distributed among all of them.
+	 * @param partitioning
+	 * @param pool
+	 * @param patterns
+	 */
+	public ShardedSffeco(Sffeco.Options options, int shardCount, Partitioning partitioning,
+			ForkJoinPool pool, String... patterns)
+	{
+		if (shardCount < 1)
+			throw new IllegalArgumentException("shardCount must be positive");
+		this.patterns = patterns == null ? new String[0] : patterns.clone();
+		this.pool = pool;
+		int[] shardOfPattern = partitioning == Partitioning.BY_LENGTH
+				? partitionByLength(shardCount) : partitionByFirstCharacter(shardCount, options.getCaseFolding());
+		
+		// Collect the patterns of each shard, empty shards are dropped
+		int[] sizes = new int[shardCount];
+		for (int shard : shardOfPattern)
+			++sizes[shard];
+		int[] renumber = new int[shardCount];
+		int used = 0;
+		for (int s = 0; s < shardCount; ++s)
+			renumber[s] = sizes[s] > 0 ? used++ : -1;
+		patternIDs = new int[Math.max(used, 1)][];
+		for (int s = 0; s < shardCount; ++s) {
+			if (renumber[s] >= 0)
+				patternIDs[renumber[s]] = new int[sizes[s]];
+		}
+		if (used == 0)
+			patternIDs[0] = new int[0];
+		int[] fill = new int[patternIDs.length];
+		for (int i = 0; i < shardOfPattern.length; ++i) {
+			int shard = renumber[shardOfPattern[i]];
+			patternIDs[shard][fill[shard]++] = i;
+		}
+		
+		shards = new Sffeco[patternIDs.length];
+		for (int s = 0; s < shards.length; ++s) {
+			String[] shardPatterns = new String[patternIDs[s].length];
+			for (int i = 0; i < shardPatterns.length; ++i)
+				shardPatterns[i] = this.patterns[patternIDs[s][i]];
+			final Sffeco shard = new Sffeco(options.copy(), shardPatterns);
+			shards[s] = shard;
+			simulators.add(ThreadLocal.withInitial(() -> shard.createSimulator()));
+		}
+	}
+	
+	/* Private methods */
+	
+	/* Cuts the patterns sorted by their length into groups of about the same total length */
+	private int[] partitionByLength(int shardCount) {
+		Integer[] order = new Integer[patterns.length];
+		long total = 0;
+		for (int i = 0; i < order.length; ++i) {
+			order[i] = i;
+			total += weight(patterns[i]);
+		}
+		Arrays.sort(order, (Integer i1, Integer i2) -> {
+			int r = Integer.compare(patterns[i1].length(), patterns[i2].length());
+			return r != 0 ? r : Integer.compare(i1, i2);
+		});
+		int[] result = new int[patterns.length];
+		long sum = 0;
+		for (int i : order) {
+			// The shard, in which the middle of the pattern falls
+			result[i] = (int) Math.min(shardCount - 1, (2 * sum + weight(patterns[i])) * shardCount / (2 * Math.max(total, 1)));
+			sum += weight(patterns[i]);
+		}
+		return result;
+	}
+	
+	/* Groups the patterns by their first character and assigns the groups from the heaviest
+	 * one to the currently lightest shard */
+	private int[] partitionByFirstCharacter(int shardCount, CaseFolding folding) {
+		HashMap<Character, Long> groupWeights = new HashMap<>();
+		for (String pattern : patterns)
+			groupWeights.merge(groupOf(pattern, folding), (long) weight(pattern), Long::sum);
+		ArrayList<Character> groups = new ArrayList<>(groupWeights.keySet());
+		groups.sort((Character c1, Character c2) -> {
+			int r = Long.compare(groupWeights.get(c2), groupWeights.get(c1));
+			return r != 0 ? r : Character.compare(c1, c2);
+		});
+		long[] load = new long[shardCount];
+		HashMap<Character, Integer> shardOfGroup = new HashMap<>();
+		for (Character group : groups) {
+			int lightest = 0;
+			for (int s = 1; s < shardCount; ++s) {
+				if (load[s] < load[lightest])
+					lightest = s;
+			}
+			load[lightest] += groupWeights.get(group);
+			shardOfGroup.put(group, lightest);
+		}
+		int[] result = new int[patterns.length];
+		for (int i = 0; i < patterns.length; ++i)
+			result[i] = shardOfGroup.get(groupOf(patterns[i], folding));
+		return result;
+	}
+	
+	/* Returns the folded first character, the empty pattern is grouped under Character.MAX_VALUE */
+	private static Character groupOf(String pattern, CaseFolding folding) {
+		return pattern.length() == 0 ? Character.MAX_VALUE : folding.fold(pattern.charAt(0));
+	}
+	
+	/* Cost of a pattern used for balancing, every pattern costs something */
+	private static int weight(String pattern) {
+		return pattern.length() + 1;
+	}
+	
+	/* Searches the shard and maps its pattern indices to the original ones */
+	private ArrayList<Pair<Integer>> searchShard(int shard, String text, MatchMode mode) {
+		Sffeco dictionary = shards[shard];
+		ArrayList<Pair<Integer>> result = dictionary.search(text, mode,
+				dictionary.needsSimulator(mode) ? simulators.get(shard).get() : null);
+		for (int i = 0; i < result.size(); ++i) {
+			Pair<Integer> match = result.get(i);
+			result.set(i, new Pair<Integer>(patternIDs[shard][match.first], match.second));
+		}
+		return result;
+	}
+	
+	/* Searches all shards in parallel */
+	private ArrayList<ArrayList<Pair<Integer>>> searchShards(String text, MatchMode mode) {
+		ArrayList<ArrayList<Pair<Integer>>> results = new ArrayList<>();
+		if (shards.length == 1) {
+			results.add(searchShard(0, text, mode));
+			return results;
+		}
+		ArrayList<ForkJoinTask<ArrayList<Pair<Integer>>>> tasks = new ArrayList<>();
+		for (int s = 1; s < shards.length; ++s) {
+			final int shard = s;
+			tasks.add(pool.submit(() -> searchShard(shard, text, mode)));
+		}
+		// The calling thread searches the first shard itself
+		results.add(searchShard(0, text, mode));
+		for (ForkJoinTask<ArrayList<Pair<Integer>>> task : tasks)
+			results.add(task.join());
+		return results;
+	}
+	
+	/* Determines whether the first match is preferred to the second one at the same end or
+	 * start, i.e. whether it is longer or equally long with a lower index */
+	private boolean longer(int patternID1, int patternID2) {
+		int r = Integer.compare(patterns[patternID2].length(), patterns[patternID1].length());
+		return r != 0 ? r < 0 : patternID1 < patternID2;
+	}
+	
+	/* Merges the sorted results of the shards, keeping only the longest match at each end
+	 * if longestOnly is set */
+	private ArrayList<Pair<Integer>> merge(ArrayList<ArrayList<Pair<Integer>>> results, boolean longestOnly) {
+		ArrayList<Pair<Integer>> result = new ArrayList<>();
+		int[] next = new int[results.size()];
+		while (true) {
+			// Find the smallest head by the end and then by the index
+			int best = -1;
+			for (int s = 0; s < next.length; ++s) {
+				if (next[s] == results.get(s).size())
+					continue;
+				Pair<Integer> head = results.get(s).get(next[s]);
+				if (best < 0)
+					best = s;
+				else {
+					Pair<Integer> bestHead = results.get(best).get(next[best]);
+					int r = head.second.compareTo(bestHead.second);
+					if (r < 0 || (r == 0 && head.first < bestHead.first))
+						best = s;
+				}
+			}
+			if (best < 0)
+				return result;
+			Pair<Integer> match = results.get(best).get(next[best]++);
+			int last = result.size() - 1;
+			if (longestOnly && last >= 0 && result.get(last).second.equals(match.second)) {
+				if (longer(match.first, result.get(last).first))
+					result.set(last, match);
+			} else
+				result.add(match);
+		}
+	}
+	
+	/* Selects the non-overlapping leftmost matches from all matches sorted by their ends */
+	private ArrayList<Pair<Integer>> selectLeftmost(ArrayList<Pair<Integer>> all, boolean longest) {
+		ArrayList<Pair<Integer>> byStart = new ArrayList<>(all);
+		byStart.sort((Pair<Integer> m1, Pair<Integer> m2) -> {
+			int r = Integer.compare(m1.second - patterns[m1.first].length(), m2.second - patterns[m2.first].length());
+			if (r != 0)
+				return r;
+			if (longest)
+				return m1.first.equals(m2.first) ? 0 : longer(m1.first, m2.first) ? -1 : 1;
+			return Integer.compare(m1.first, m2.first);
+		});
+		ArrayList<Pair<Integer>> result = new ArrayList<>();
+		int from = 0;
+		for (Pair<Integer> match : byStart) {
+			int start = match.second - patterns[match.first].length();
+			if (start < from)
+				continue;
+			result.add(match);
+			// Continue right after the match, an empty match does not block its position
+			// for longer matches, but only one empty match is reported there
+			from = match.second > start ? match.second : match.second + 1;
+		}
+		return result;
+	}
+	
+	/* Public methods */
+	
+	/**
+	 * Searches for the patterns in the given text, the same as Sffeco.search(String).
+	 * @param text
+	 * @return
+	 */
+	public ArrayList<Pair<Integer>> search(String text) {
+		return search(text, MatchMode.LONGEST_AT_END);
+	}
+	
+	/**
+	 * Searches for the patterns in the given text using the given match semantics, the same as
+	 * Sffeco.search(String, MatchMode) over all the patterns.
+	 * @param text
+	 * @param mode
+	 * @return Pairs of the indices of the patterns and the ends of their matches sorted by the ends.
+	 */
+	public ArrayList<Pair<Integer>> search(String text, MatchMode mode) {
+		switch (mode) {
+		case LONGEST_AT_END:
+			return merge(searchShards(text, mode), true);
+		case ALL:
+			return merge(searchShards(text, mode), false);
+		default:
+			return selectLeftmost(merge(searchShards(text, MatchMode.ALL), false),
+					mode == MatchMode.LEFTMOST_LONGEST);
+		}
+	}
+	
+	public String[] getPatterns() {
+		return patterns.clone();
+	}
+	
+	public int getShardCount() {
+		return shards.length;
+	}
+	
+	/**
+	 * Returns the given shard, its pattern indices can be mapped to the original ones by
+	 * {@link #getPatternIDs(int)}.
+	 * @param shard
+	 * @return
+	 */
+	public Sffeco getShard(int shard) {
+		return shards[shard];
+	}
+	
+	/**
+	 * Returns the original indices of the patterns of the given shard in ascending order.
+	 * @param shard
+	 * @return
+	 */
+	public int[] getPatternIDs(int shard) {
+		return patternIDs[shard].clone();
+	}
+}
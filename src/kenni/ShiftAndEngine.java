@@ -0,0 +1,94 @@
+package kenni;
+
+import java.util.ArrayList;
+
+/**
+ * <p>Multi-pattern search engine implementing the bit-parallel Shift-And algorithm. The
+ * patterns are laid out one after another in a single 64 bit word, bit j of the state
+ * is set iff the first j - (start of its pattern) + 1 characters of the pattern at bit j
+ * match the text ending at the current position. Reading a character costs a shift, an or
+ * and an and, regardless of the number of patterns.</p>
+ * <p>
+ * The total length of the patterns is limited to 64 characters, see {@link #fits(String[])}.</p>
+ * @author Libor
+ *
+ */
+public class ShiftAndEngine implements ISearchEngine {
+	/* Static fields and constants */
+	/** Maximum total length of the patterns. */
+	public static final int MAX_TOTAL_LENGTH = Long.SIZE;
+	
+	/* Private fields */
+	private final AlphabetPartition alphabet;
+	// Bits of the pattern positions matching each class
+	private final long[] masks;
+	// Bits of the first and of the last positions of the patterns
+	private final long startBits;
+	private final long endBits;
+	// Index of the pattern ending at each end bit, patterns are laid out in the order of
+	// their indices, so the lower bits belong to the lower indices
+	private final int[] patternOfBit = new int[Long.SIZE];
+	
+	/* Constructors */
+	
+	/**
+	 * Creates the engine for the given patterns.
+	 * @param patterns Non-empty patterns of at most MAX_TOTAL_LENGTH characters in total.
+	 * @param folding Case folding of the patterns.
+	 */
+	public ShiftAndEngine(String[] patterns, CaseFolding folding) {
+		if (patterns.length == 0)
+			throw new IllegalArgumentException("At least one pattern is required");
+		if (!fits(patterns))
+			throw new IllegalArgumentException("Patterns are longer than " + MAX_TOTAL_LENGTH + " characters in total");
+		ArrayList<Symbol> symbols = new ArrayList<>();
+		for (String pattern : patterns) {
+			if (pattern.length() == 0)
+				throw new IllegalArgumentException("Patterns must not be empty");
+			for (int i = 0; i < pattern.length(); ++i)
+				symbols.add(folding.toSymbol(pattern.charAt(i)));
+		}
+		alphabet = AlphabetPartition.create(symbols);
+		masks = new long[alphabet.getClassCount()];
+		
+		long start = 0;
+		long end = 0;
+		int bit = 0;
+		for (int p = 0; p < patterns.length; ++p) {
+			start |= 1L << bit;
+			for (int i = 0; i < patterns[p].length(); ++i, ++bit)
+				masks[alphabet.classOf(patterns[p].charAt(i))] |= 1L << bit;
+			end |= 1L << (bit - 1);
+			patternOfBit[bit - 1] = p;
+		}
+		startBits = start;
+		endBits = end;
+	}
+	
+	/* Public methods */
+	
+	/**
+	 * Determines whether the patterns are short enough for this engine.
+	 * @param patterns
+	 * @return
+	 */
+	public static boolean fits(String[] patterns) {
+		int total = 0;
+		for (String pattern : patterns)
+			total += pattern.length();
+		return total <= MAX_TOTAL_LENGTH;
+	}
+	
+	@Override
+	public ArrayList<Pair<Integer>> searchAll(String text) {
+		ArrayList<Pair<Integer>> result = new ArrayList<>();
+		long state = 0;
+		for (int i = 0; i < text.length(); ++i) {
+			state = ((state << 1) | startBits) & masks[alphabet.classOf(text.charAt(i))];
+			// Matches are reported in the order of the bits, i.e. sorted by the pattern indices
+			for (long hits = state & endBits; hits != 0; hits &= hits - 1)
+				result.add(new Pair<Integer>(patternOfBit[Long.numberOfTrailingZeros(hits)], i + 1));
+		}
+		return result;
+	}
+}
@@ -73,5 +73,12 @@ public class SimRegularFactory implements IRegularFactory {
 		// TODO Auto-generated method stub
 		return null;
 	}
+	
+	@Override
+	public BaseAutomaton reversal(String resultName, BaseAutomaton aut) {
+		// Reversal cannot be simulated by delegating to the original automaton, as that only
+		// knows outgoing transitions. So the result is constructed directly.
+		return DirectRegularFactory.get().reversal(resultName, aut);
+	}
 
 }
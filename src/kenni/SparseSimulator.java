@@ -0,0 +1,211 @@
+package kenni;
+
+/**
+ * <p>Simulates a CompactNfa without allocating any memory while reading. The active states
+ * are kept in sparse sets (Briggs and Torczon), which can be cleared and tested for
+ * membership in constant time. The current and next sets are swapped after each step and
+ * epsilon closures are computed by a depth first search with a preallocated stack.</p>
+ * <p>
+ * Its usage is the same as of BasicSimulator: after reset, hasNext() and next() are called
+ * in a loop, the first next() does not read anything, so that the start state can be
+ * examined as well.</p>
+ * @author Libor
+ *
+ */
+public class SparseSimulator {
+	/* Private fields */
+	private final CompactNfa nfa;
+	private final AlphabetPartition alphabet;
+	private CharSequence sentence;
+	private int position;
+	private boolean reseted;
+	// Sparse sets of the current and the next states
+	private SparseSet current;
+	private SparseSet next;
+	private final int[] stack;
+	
+	/**
+	 * Set of integers from 0 to capacity - 1, that can be cleared in constant time.
+	 * x is in the set iff sparse[x] < size and dense[sparse[x]] == x. Elements are kept in
+	 * the order of insertion. Shared with PikeVM.
+	 */
+	static class SparseSet {
+		private final int[] dense;
+		private final int[] sparse;
+		private int size = 0;
+		
+		SparseSet(int capacity) {
+			dense = new int[capacity];
+			sparse = new int[capacity];
+		}
+		
+		boolean contains(int x) {
+			int i = sparse[x];
+			return i < size && dense[i] == x;
+		}
+		
+		/* Returns true if x has been added */
+		boolean add(int x) {
+			if (contains(x))
+				return false;
+			sparse[x] = size;
+			dense[size++] = x;
+			return true;
+		}
+		
+		void clear() {
+			size = 0;
+		}
+		
+		int size() {
+			return size;
+		}
+		
+		/* Returns the i-th inserted element */
+		int get(int i) {
+			return dense[i];
+		}
+	}
+	
+	/* Constructors */
+	
+	public SparseSimulator(CompactNfa nfa) {
+		this.nfa = nfa;
+		this.alphabet = nfa.getAlphabet();
+		int capacity = Math.max(nfa.getStateCount(), 1);
+		current = new SparseSet(capacity);
+		next = new SparseSet(capacity);
+		stack = new int[capacity];
+	}
+	
+	/**
+	 * Creates a simulator of the flattened copy of the given automaton.
+	 * @param aut
+	 */
+	public SparseSimulator(BaseAutomaton aut) {
+		this(new CompactNfa(aut));
+	}
+	
+	/* Private methods */
+	
+	/* Adds the state and its epsilon closure to the set */
+	private void addClosure(SparseSet set, int state) {
+		if (!set.add(state))
+			return;
+		int top = 0;
+		stack[top++] = state;
+		while (top > 0) {
+			int s = stack[--top];
+			for (int e = nfa.epsilonStart(s); e < nfa.epsilonEnd(s); ++e) {
+				int t = nfa.epsilonTarget(e);
+				// Every state is pushed at most once, so the stack cannot overflow
+				if (set.add(t))
+					stack[top++] = t;
+			}
+		}
+	}
+	
+	/* Public methods */
+	
+	public void reset(CharSequence sentence) {
+		reset(sentence, 0);
+	}
+	
+	/**
+	 * Resets the simulator to start reading the given sentence at the given offset.
+	 * @param sentence
+	 * @param offset
+	 */
+	public void reset(CharSequence sentence, int offset) {
+		this.sentence = sentence;
+		position = offset;
+		current.clear();
+		if (nfa.getStartState() >= 0)
+			addClosure(current, nfa.getStartState());
+		reseted = true;
+	}
+	
+	/* Resets the simulator to continue reading the given sentence from its start in the given
+	 * active states, which have to be closed under epsilon transitions */
+	void resume(CharSequence sentence, int[] states) {
+		this.sentence = sentence;
+		position = 0;
+		current.clear();
+		for (int state : states)
+			current.add(state);
+		reseted = false;
+	}
+	
+	public boolean hasNext() {
+		return reseted || (sentence != null && position < sentence.length());
+	}
+	
+	public void next() {
+		if (reseted) {
+			reseted = false;
+			return;
+		}
+		int cls = alphabet.classOf(sentence.charAt(position));
+		next.clear();
+		for (int i = 0; i < current.size; ++i) {
+			int s = current.dense[i];
+			for (int t = nfa.firstTransition(s, cls); t < nfa.transitionEnd(s)
+					&& nfa.transitionClass(t) == cls; ++t)
+				addClosure(next, nfa.transitionTarget(t));
+			for (int w = nfa.wildStart(s); w < nfa.wildEnd(s); ++w)
+				addClosure(next, nfa.wildTarget(w));
+		}
+		SparseSet swap = current;
+		current = next;
+		next = swap;
+		++position;
+	}
+	
+	/**
+	 * Determines whether the automaton accepts the given string.
+	 * @param sentence
+	 * @return
+	 */
+	public boolean accepts(CharSequence sentence) {
+		reset(sentence);
+		while (hasNext()) {
+			if (current.size == 0)
+				return false;
+			next();
+		}
+		return isFinal();
+	}
+	
+	public int getCurrentPosition() {
+		return position;
+	}
+	
+	/**
+	 * Determines whether some of the active states is final.
+	 * @return
+	 */
+	public boolean isFinal() {
+		for (int i = 0; i < current.size; ++i) {
+			if (nfa.isFinal(current.dense[i]))
+				return true;
+		}
+		return false;
+	}
+	
+	public int getActiveStateCount() {
+		return current.size;
+	}
+	
+	/**
+	 * Returns the i-th active state, in the order in which the states have been activated.
+	 * @param i From 0 to getActiveStateCount() - 1.
+	 * @return The compact index of the state, see CompactNfa.getOriginalIndex(int).
+	 */
+	public int getActiveState(int i) {
+		return current.dense[i];
+	}
+	
+	public CompactNfa getNfa() {
+		return nfa;
+	}
+}
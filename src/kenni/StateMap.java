@@ -0,0 +1,55 @@
+package kenni;
+
+import java.util.IdentityHashMap;
+
+import kenni.BaseAutomaton.State;
+
+/**
+ * Maps the states visited by {@link BaseAutomaton#actionOverStates} of an automaton to values.
+ * The own states of the automaton are mapped by their indices. States of other automata are
+ * mapped by identity, because their indices are only unique within their parents and need not
+ * be lower than getStateIndexBound() of the automaton (e.g. the branch states of
+ * UnionAutomatonSim).
+ * @author Libor
+ *
+ */
+class StateMap<V> {
+	/* Private fields */
+	private final BaseAutomaton aut;
+	private final Object[] own;
+	// Created when the first foreign state is put
+	private IdentityHashMap<State, V> foreign = null;
+	
+	/* Constructors */
+	
+	StateMap(BaseAutomaton aut) {
+		this.aut = aut;
+		this.own = new Object[aut.getStateIndexBound()];
+	}
+	
+	/* Private methods */
+	
+	private boolean isOwn(State state) {
+		return state.parent == aut && state.index < own.length;
+	}
+	
+	/* Package private methods */
+	
+	void put(State state, V value) {
+		if (isOwn(state))
+			own[state.index] = value;
+		else {
+			if (foreign == null)
+				foreign = new IdentityHashMap<>();
+			foreign.put(state, value);
+		}
+	}
+	
+	/* Returns the value of the state, or null if it has none */
+	@SuppressWarnings("unchecked")
+	V get(State state) {
+		if (isOwn(state))
+			return (V) own[state.index];
+		return foreign == null ? null : foreign.get(state);
+	}
+}
@@ -0,0 +1,230 @@
+package kenni;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import kenni.BaseAutomaton.State;
+
+/**
+ * <p>Scans streams delivered in fragments by a shared automaton, e.g. the search automaton of
+ * Sffeco (see {@link Sffeco#createStreamScanner()}). The scanner itself is immutable and can
+ * be used by any number of threads at once, everything belonging to a stream is kept in its
+ * {@link ScanState}, so each stream costs only a few bytes between its fragments.</p>
+ * <p>
+ * If the automaton can be determinized into at most maxDfaStates states, the scanner runs
+ * the deterministic automaton (compiled by ScannerCompiler) and a state is a single state
+ * index. Otherwise it simulates the flattened automaton by SparseSimulator and a state is
+ * the sorted set of its active states.</p>
+ * <p>
+ * Final states carry labels (e.g. pattern indices), after each character the distinct labels
+ * of the final states entered are reported in ascending order together with the stream offset
+ * after the character. The empty prefix of the stream is never reported.</p>
+ * <pre>
+ * ScanState state = scanner.start();
+ * for (String fragment : fragments)
+ *     state = scanner.resume(state, fragment, (label, end) -&gt; ...);
+ * </pre>
+ * @author Libor
+ *
+ */
+public class StreamScanner {
+	/* Static fields and constants */
+	/** Default limit of the number of deterministic states. */
+	public static final int DEFAULT_MAX_DFA_STATES = 1 << 16;
+	private static final int[] NO_STATES = new int[0];
+	
+	/* Private fields */
+	// Exactly one of the scanner and the nfa is not null
+	private final DfaScanner scanner;
+	private final int dfaStart;
+	private final CompactNfa nfa;
+	private final ThreadLocal<SparseSimulator> simulators;
+	// Sorted labels of each deterministic or compact state, null if there are none
+	private final int[][] labelsOfState;
+	
+	/**
+	 * Receives the matches found while scanning a fragment.
+	 */
+	public interface MatchListener {
+		/**
+		 * Called for each label of the final states entered after reading a character.
+		 * @param label
+		 * @param end Offset in the stream after the character.
+		 */
+		void match(int label, long end);
+	}
+	
+	/* Constructors */
+	
+	/**
+	 * Creates the scanner of the automaton, whose final states are all labelled by 0.
+	 * @param aut
+	 */
+	public StreamScanner(BaseAutomaton aut) {
+		this(aut, null, DEFAULT_MAX_DFA_STATES);
+	}
+	
+	/**
+	 * Creates the scanner of the automaton, whose final states are all labelled by 0.
+	 * @param aut
+	 * @param maxDfaStates The automaton is simulated if its deterministic version would have
+	 * more states, 0 forces the simulation.
+	 */
+	public StreamScanner(BaseAutomaton aut, int maxDfaStates) {
+		this(aut, null, maxDfaStates);
+	}
+	
+	/* Creates the scanner, whose final states are labelled by labelOfIndex indexed by the
+	 * indices of the states of aut, negative labels are not reported. If labelOfIndex is null,
+	 * all final states are labelled by 0. */
+	StreamScanner(BaseAutomaton aut, int[] labelOfIndex, int maxDfaStates) {
+		ArrayList<Set<State>> subsets = new ArrayList<>();
+		DeterministicAutomaton dfa = maxDfaStates <= 0 || aut.getStartState() == null ? null
+				: DeterministicAutomaton.determinize("", aut, maxDfaStates, subsets);
+		if (dfa != null) {
+			labelsOfState = new int[dfa.getStateCount()][];
+			BitSet stopStates = new BitSet();
+			for (int state = 0; state < labelsOfState.length; ++state) {
+				TreeSet<Integer> labels = new TreeSet<>();
+				for (State nfaState : subsets.get(state)) {
+					int label = labelOf(aut, labelOfIndex, nfaState);
+					if (label >= 0)
+						labels.add(label);
+				}
+				labelsOfState[state] = toArray(labels);
+				if (labelsOfState[state] != null)
+					stopStates.set(state);
+			}
+			scanner = ScannerCompiler.compile(dfa, stopStates);
+			dfaStart = dfa.getStartIndex();
+			nfa = null;
+			simulators = null;
+		} else {
+			final CompactNfa flat = new CompactNfa(aut);
+			labelsOfState = new int[flat.getStateCount()][];
+			for (int s = 0; s < labelsOfState.length; ++s) {
+				int label = labelOf(aut, labelOfIndex, flat.getOriginalState(s));
+				if (label >= 0)
+					labelsOfState[s] = new int[] { label };
+			}
+			scanner = null;
+			dfaStart = DeterministicAutomaton.DEAD;
+			nfa = flat;
+			simulators = ThreadLocal.withInitial(() -> new SparseSimulator(flat));
+		}
+	}
+	
+	/* Private methods */
+	
+	private static int labelOf(BaseAutomaton aut, int[] labelOfIndex, State state) {
+		if (!aut.isFinalState(state))
+			return -1;
+		return labelOfIndex == null ? 0 : labelOfIndex[state.index];
+	}
+	
+	private static int[] toArray(TreeSet<Integer> labels) {
+		if (labels.isEmpty())
+			return null;
+		int[] result = new int[labels.size()];
+		int i = 0;
+		for (int label : labels)
+			result[i++] = label;
+		return result;
+	}
+	
+	private ScanState resumeDfa(ScanState state, String fragment, MatchListener listener) {
+		int current = state.getDfaState();
+		if (current != DeterministicAutomaton.DEAD && (current < 0 || current >= labelsOfState.length))
+			throw new IllegalArgumentException("Not a state of this scanner: " + state);
+		int position = 0;
+		while (position < fragment.length() && current != DeterministicAutomaton.DEAD) {
+			long stop = scanner.scan(fragment, position, current);
+			position = (int) (stop >>> 32);
+			current = (int) stop;
+			if (current != DeterministicAutomaton.DEAD && labelsOfState[current] != null) {
+				for (int label : labelsOfState[current])
+					listener.match(label, state.getOffset() + position);
+			}
+		}
+		return ScanState.ofDfa(state.getOffset() + fragment.length(), current);
+	}
+	
+	private ScanState resumeNfa(ScanState state, String fragment, MatchListener listener) {
+		int[] states = state.nfaStates();
+		for (int s : states) {
+			if (s < 0 || s >= labelsOfState.length)
+				throw new IllegalArgumentException("Not a state of this scanner: " + state);
+		}
+		SparseSimulator simulator = simulators.get();
+		simulator.resume(fragment, states);
+		int[] found = new int[8];
+		while (simulator.hasNext() && simulator.getActiveStateCount() > 0) {
+			simulator.next();
+			int foundCount = 0;
+			for (int i = 0; i < simulator.getActiveStateCount(); ++i) {
+				int[] labels = labelsOfState[simulator.getActiveState(i)];
+				if (labels != null) {
+					if (foundCount == found.length)
+						found = Arrays.copyOf(found, 2 * found.length);
+					found[foundCount++] = labels[0];
+				}
+			}
+			if (foundCount > 1)
+				Arrays.sort(found, 0, foundCount);
+			for (int k = 0; k < foundCount; ++k) {
+				// Several final states may carry the same label
+				if (k == 0 || found[k] != found[k - 1])
+					listener.match(found[k], state.getOffset() + simulator.getCurrentPosition());
+			}
+		}
+		int[] next = new int[simulator.getActiveStateCount()];
+		for (int i = 0; i < next.length; ++i)
+			next[i] = simulator.getActiveState(i);
+		Arrays.sort(next);
+		return ScanState.ofNfa(state.getOffset() + fragment.length(), next);
+	}
+	
+	/* Public methods */
+	
+	/**
+	 * Returns the state before the first character of a stream.
+	 * @return
+	 */
+	public ScanState start() {
+		if (nfa == null)
+			return ScanState.ofDfa(0, dfaStart);
+		if (nfa.getStartState() < 0)
+			return ScanState.ofNfa(0, NO_STATES);
+		SparseSimulator simulator = simulators.get();
+		simulator.reset("");
+		int[] states = new int[simulator.getActiveStateCount()];
+		for (int i = 0; i < states.length; ++i)
+			states[i] = simulator.getActiveState(i);
+		Arrays.sort(states);
+		return ScanState.ofNfa(0, states);
+	}
+	
+	/**
+	 * Reads the next fragment of a stream.
+	 * @param state State of the stream after its previous fragment, or start().
+	 * @param fragment
+	 * @param listener Receives the matches ending in the fragment in the order of their ends.
+	 * @return State of the stream after the fragment, the given state is not changed.
+	 */
+	public ScanState resume(ScanState state, String fragment, MatchListener listener) {
+		if (state.isDeterministic() != isDeterministic())
+			throw new IllegalArgumentException("The state has been created by another kind of scanner");
+		return nfa == null ? resumeDfa(state, fragment, listener) : resumeNfa(state, fragment, listener);
+	}
+	
+	/**
+	 * Determines whether the scanner runs the deterministic automaton.
+	 * @return
+	 */
+	public boolean isDeterministic() {
+		return nfa == null;
+	}
+}
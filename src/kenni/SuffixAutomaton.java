@@ -86,6 +86,16 @@ public class SuffixAutomaton extends BaseAutomaton {
 		return aut.getTransition(stateSet, symbol);
 	}
 
+	@Override
+	public Collection<State> getTransition(State state, char c) {
+		return aut.getTransition(state, c);
+	}
+	
+	@Override
+	public Collection<State> getTransition(Collection<State> stateSet, char c) {
+		return aut.getTransition(stateSet, c);
+	}
+	
 	@Override
 	public void actionOverStates(Consumer<State> action) {
 		aut.actionOverStates(action);
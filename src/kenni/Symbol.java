@@ -1,18 +1,32 @@
 package kenni;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents a transition symbol for finite automatons.
- * A transition symbol is either epsilon, single character, wild card or a complement.
+ * A transition symbol is either epsilon, single character, wild card or a character class.
+ * A character class is a set of characters given as sorted disjoint ranges, it is used
+ * for ranges like [a-z0-9] as well as for complements of characters and other classes.
  * @author Libor
  *
  */
 public class Symbol implements Comparable<Symbol> {
 	/* Static constants */
-	public static final Symbol EPSILON = new Symbol(' ');
-	public static final Symbol WILD_CARD = new Symbol(' ');
-	public static final Symbol COMPLEMENT = new Symbol(' ');
+	// Symbols indexed by their ordinals. Registration is guarded by the class lock, readers
+	// do not lock: a full table is replaced by a larger copy, then the symbol is stored and
+	// only then the count is published, so a reader, that has read the count, finds all
+	// symbols below it in whichever table it reads. These have to be initialized before any
+	// symbol is created.
+	private static volatile Symbol[] ordinals = new Symbol[64];
+	private static volatile int ordinalCount = 0;
+	
+	public static final Symbol EPSILON = new Symbol(' ', null);
+	public static final Symbol WILD_CARD = new Symbol(' ', null);
+	/** Kept for compatibility, complements are represented by character classes,
+	 * see {@link #getComplement(Symbol)}. */
+	public static final Symbol COMPLEMENT = new Symbol(' ', null);
 	
 	// Used for comparing
 	private static final HashMap<Symbol, Integer> specialPriorities;
@@ -24,13 +38,86 @@ public class Symbol implements Comparable<Symbol> {
 	}
 	
 	/* Static fields and constants */
-	private static HashMap<Character, Symbol> datamap = new HashMap<>();
+	// Concurrent, because automata (and therefore symbols) are shared among searching threads
+	private static ConcurrentHashMap<Character, Symbol> datamap = new ConcurrentHashMap<>();
+	// Character classes keyed by their ranges converted to string
+	private static ConcurrentHashMap<String, Symbol> classmap = new ConcurrentHashMap<>();
 	
 	/* Public fields */
+	/** The character of this symbol. For character classes, this is the lowest character
+	 * of the class. */
 	public final char value;
+	/** Dense number of this symbol, unique among all symbols. */
+	public final int ordinal;
+	
+	/* Private fields */
+	// Pairs of inclusive bounds of the ranges, null if this is not a character class
+	private final char[] ranges;
 	
-	private Symbol(char value) {
+	private Symbol(char value, char[] ranges) {
 		this.value = value;
+		this.ranges = ranges;
+		this.ordinal = register(this);
+	}
+	
+	/* Private static methods */
+	private static synchronized int register(Symbol symbol) {
+		int count = ordinalCount;
+		Symbol[] table = ordinals;
+		if (count == table.length) {
+			table = Arrays.copyOf(table, 2 * table.length);
+			ordinals = table;
+		}
+		table[count] = symbol;
+		ordinalCount = count + 1;
+		return count;
+	}
+	
+	/* Sorts the ranges and merges the overlapping and adjacent ones */
+	private static char[] normalize(char[] bounds) {
+		int count = bounds.length / 2;
+		int[][] pairs = new int[count][];
+		for (int i = 0; i < count; ++i) {
+			char lo = bounds[2 * i];
+			char hi = bounds[2 * i + 1];
+			if (lo > hi)
+				throw new IllegalArgumentException("Invalid range: " + lo + "-" + hi);
+			pairs[i] = new int[] { lo, hi };
+		}
+		Arrays.sort(pairs, (int[] p1, int[] p2) -> Integer.compare(p1[0], p2[0]));
+		char[] result = new char[bounds.length];
+		int length = 0;
+		for (int[] pair : pairs) {
+			if (length > 0 && pair[0] <= result[length - 1] + 1) {
+				result[length - 1] = (char) Math.max(result[length - 1], pair[1]);
+			} else {
+				result[length++] = (char) pair[0];
+				result[length++] = (char) pair[1];
+			}
+		}
+		return Arrays.copyOf(result, length);
+	}
+	
+	/* Returns the canonical symbol for normalized ranges */
+	private static Symbol getNormalizedClass(char[] ranges) {
+		if (ranges.length == 2 && ranges[0] == ranges[1])
+			return getSymbol(ranges[0]);
+		if (ranges.length == 2 && ranges[0] == Character.MIN_VALUE && ranges[1] == Character.MAX_VALUE)
+			return WILD_CARD;
+		String key = new String(ranges);
+		Symbol s = classmap.get(key);
+		if (s == null) {
+			s = classmap.computeIfAbsent(key,
+					(String k) -> new Symbol(ranges.length == 0 ? ' ' : ranges[0], ranges));
+		}
+		return s;
+	}
+	
+	private static void appendChar(StringBuilder sb, char c) {
+		if (c < ' ' || c > '~' || c == '-' || c == '[' || c == ']' || c == '^' || c == '\\')
+			sb.append(String.format("\\u%04x", (int) c));
+		else
+			sb.append(c);
 	}
 	
 	/* Static methods */
@@ -41,23 +128,142 @@ public class Symbol implements Comparable<Symbol> {
 	 * @return The Symbol representing the given value.
 	 */
 	public static Symbol getSymbol(char value) {
-		if (datamap.containsKey(value))
-			return datamap.get(value);
-		else {
-			Symbol s = new Symbol(value);
-			datamap.put(value, s);
-			return s;
-		}			
+		Symbol s = datamap.get(value);
+		if (s == null)
+			s = datamap.computeIfAbsent(value, (Character c) -> new Symbol(c, null));
+		return s;
+	}
+	
+	/**
+	 * Returns a Symbol representing all characters from lo to hi (inclusive).
+	 * @param lo
+	 * @param hi
+	 * @return The Symbol. If lo == hi, it is the plain symbol of that character.
+	 */
+	public static Symbol getRange(char lo, char hi) {
+		return getCharClass(lo, hi);
+	}
+	
+	/**
+	 * Returns a Symbol representing the union of the given character ranges. Ranges may overlap
+	 * and may be given in any order, equal classes are always represented by the same Symbol.
+	 * A class of a single character is represented by the plain symbol of that character and
+	 * a class of all characters by WILD_CARD.
+	 * @param bounds Pairs of inclusive bounds, i.e. lo1, hi1, lo2, hi2, ...
+	 * @return The Symbol representing the class.
+	 */
+	public static Symbol getCharClass(char... bounds) {
+		if (bounds.length % 2 != 0)
+			throw new IllegalArgumentException("Range bounds have to come in pairs");
+		return getNormalizedClass(normalize(bounds));
+	}
+	
+	/**
+	 * Returns a character class of all characters that are not matched by the given symbol.
+	 * @param symbol A plain symbol, a character class or WILD_CARD.
+	 * @return The complement.
+	 */
+	public static Symbol getComplement(Symbol symbol) {
+		if (symbol == EPSILON || symbol == COMPLEMENT)
+			throw new IllegalArgumentException("No complement for " + symbol);
+		if (symbol == WILD_CARD)
+			return getNormalizedClass(new char[0]);
+		char[] bounds = symbol.ranges != null ? symbol.ranges : new char[] { symbol.value, symbol.value };
+		char[] result = new char[bounds.length + 2];
+		int length = 0;
+		int next = Character.MIN_VALUE;
+		for (int i = 0; i < bounds.length; i += 2) {
+			if (bounds[i] > next) {
+				result[length++] = (char) next;
+				result[length++] = (char) (bounds[i] - 1);
+			}
+			next = bounds[i + 1] + 1;
+		}
+		if (next <= Character.MAX_VALUE) {
+			result[length++] = (char) next;
+			result[length++] = Character.MAX_VALUE;
+		}
+		return getNormalizedClass(Arrays.copyOf(result, length));
+	}
+	
+	/**
+	 * Returns the Symbol with the given ordinal.
+	 * @param ordinal
+	 * @return The Symbol, or null if no symbol with such ordinal has been created.
+	 */
+	public static Symbol fromOrdinal(int ordinal) {
+		// The count has to be read before the table
+		if (ordinal < 0 || ordinal >= ordinalCount)
+			return null;
+		return ordinals[ordinal];
 	}
 	
 	/* Public methods */
-
+	
+	/**
+	 * Determines whether this symbol is a character class.
+	 * @return
+	 */
+	public boolean isCharClass() {
+		return ranges != null;
+	}
+	
+	/**
+	 * Determines whether reading the given character matches this symbol.
+	 * Epsilon does not match any character, wild card matches all of them.
+	 * @param c
+	 * @return
+	 */
+	public boolean matches(char c) {
+		if (ranges != null) {
+			// Binary search for the last range starting at or before c
+			int lo = 0;
+			int hi = ranges.length / 2 - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (ranges[2 * mid] <= c)
+					lo = mid + 1;
+				else
+					hi = mid - 1;
+			}
+			return hi >= 0 && c <= ranges[2 * hi + 1];
+		} else if (this == WILD_CARD)
+			return true;
+		else if (this == EPSILON || this == COMPLEMENT)
+			return false;
+		else
+			return value == c;
+	}
+	
+	/**
+	 * Returns the number of ranges of this character class, 0 for other symbols.
+	 */
+	public int getRangeCount() {
+		return ranges == null ? 0 : ranges.length / 2;
+	}
+	
+	/**
+	 * Returns the lowest character of the i-th range of this character class.
+	 */
+	public char getRangeStart(int i) {
+		return ranges[2 * i];
+	}
+	
+	/**
+	 * Returns the highest character of the i-th range of this character class.
+	 */
+	public char getRangeEnd(int i) {
+		return ranges[2 * i + 1];
+	}
+	
 	@Override
 	public int compareTo(Symbol other) {
 		int r = Character.compare(this.value, other.value);
 		if (r == 0 && specialPriorities.containsKey(this) && specialPriorities.containsKey(other)) {
 			return specialPriorities.get(this).compareTo(specialPriorities.get(other));
-		} else
+		} else if (r == 0 && this != other)
+			return Integer.compare(this.ordinal, other.ordinal);
+		else
 			return r;
 	}
 	
@@ -69,7 +275,19 @@ public class Symbol implements Comparable<Symbol> {
 			return "*";
 		else if (this == COMPLEMENT)
 			return "*_C";
-		else
+		else if (ranges != null) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("[");
+			for (int i = 0; i < ranges.length; i += 2) {
+				appendChar(sb, ranges[i]);
+				if (ranges[i + 1] != ranges[i]) {
+					sb.append("-");
+					appendChar(sb, ranges[i + 1]);
+				}
+			}
+			sb.append("]");
+			return sb.toString();
+		} else
 			return String.valueOf(value);
 	}
 }
@@ -0,0 +1,141 @@
+package kenni;
+
+import java.util.Arrays;
+
+/**
+ * A set of non-negative ints used as the target set of one transition.
+ * Up to INLINE_CAPACITY elements are kept in a small unsorted array, bigger sets
+ * are switched to an open addressing hash table with linear probing.
+ * <p>
+ * Elements are iterated over by slots: for each i from 0 to getSlotCount() - 1, getSlot(i)
+ * returns either an element or FREE.</p>
+ * @author Libor
+ *
+ */
+class TargetSet {
+	/* Static fields and constants */
+	static final int FREE = -1;
+	private static final int INLINE_CAPACITY = 4;
+	
+	/* Private fields */
+	private int[] data = new int[1];
+	private int size = 0;
+	private boolean hashed = false;
+	
+	/* Private methods */
+	private static int hash(int element, int mask) {
+		return (element * 0x9E3779B9) >>> 7 & mask;
+	}
+	
+	private int find(int element) {
+		if (!hashed) {
+			for (int i = 0; i < size; ++i) {
+				if (data[i] == element)
+					return i;
+			}
+			return -1;
+		}
+		int mask = data.length - 1;
+		for (int i = hash(element, mask); data[i] != FREE; i = (i + 1) & mask) {
+			if (data[i] == element)
+				return i;
+		}
+		return -1;
+	}
+	
+	private void insertHashed(int[] table, int element) {
+		int mask = table.length - 1;
+		int i = hash(element, mask);
+		while (table[i] != FREE)
+			i = (i + 1) & mask;
+		table[i] = element;
+	}
+	
+	private void rehash(int capacity) {
+		int[] table = new int[capacity];
+		Arrays.fill(table, FREE);
+		for (int i = 0; i < data.length; ++i) {
+			if ((hashed || i < size) && data[i] != FREE)
+				insertHashed(table, data[i]);
+		}
+		data = table;
+		hashed = true;
+	}
+	
+	/* Package private methods */
+	
+	int size() {
+		return size;
+	}
+	
+	boolean isEmpty() {
+		return size == 0;
+	}
+	
+	boolean contains(int element) {
+		return find(element) >= 0;
+	}
+	
+	/**
+	 * Inserts the element, if it is not in the set yet.
+	 * @return true if the element was inserted.
+	 */
+	boolean add(int element) {
+		assert(element >= 0);
+		if (find(element) >= 0)
+			return false;
+		if (!hashed && size < INLINE_CAPACITY) {
+			if (size == data.length)
+				data = Arrays.copyOf(data, Math.min(2 * size, INLINE_CAPACITY));
+			data[size++] = element;
+			return true;
+		}
+		// Keep the load factor of the table under 1/2
+		if (!hashed || 2 * (size + 1) > data.length)
+			rehash(Integer.highestOneBit(4 * (size + 1) - 1));
+		insertHashed(data, element);
+		++size;
+		return true;
+	}
+	
+	/**
+	 * Removes the element, if it is in the set.
+	 * @return true if the element was removed.
+	 */
+	boolean remove(int element) {
+		int i = find(element);
+		if (i < 0)
+			return false;
+		--size;
+		if (!hashed) {
+			data[i] = data[size];
+			return true;
+		}
+		// Backward shift deletion, so that no tombstones are needed
+		int mask = data.length - 1;
+		int gap = i;
+		for (int j = (gap + 1) & mask; data[j] != FREE; j = (j + 1) & mask) {
+			int home = hash(data[j], mask);
+			// Move the element into the gap if the gap lies cyclically between home and j
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				data[gap] = data[j];
+				gap = j;
+			}
+		}
+		data[gap] = FREE;
+		return true;
+	}
+	
+	int getSlotCount() {
+		return hashed ? data.length : size;
+	}
+	
+	int getSlot(int i) {
+		return data[i];
+	}
+	
+	/* Returns the approximate number of bytes occupied by this set */
+	long getMemoryFootprint() {
+		return 24 + 16 + 4L * data.length;
+	}
+}
@@ -0,0 +1,268 @@
+package kenni;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Outgoing transitions of one automaton state. It is an open addressing map
+ * (with linear probing) from symbol ordinals to target sets. Empty target sets are
+ * never kept in the map.
+ * <p>
+ * Character class transitions are additionally indexed by an interval table, that is built
+ * lazily and has to be invalidated whenever a class transition changes.</p>
+ * <p>
+ * Entries are iterated over by slots: for each i from 0 to getSlotCount() - 1, getKey(i)
+ * returns either a symbol ordinal or FREE.</p>
+ * @author Libor
+ *
+ */
+class TransitionRow {
+	/* Static fields and constants */
+	static final int FREE = -1;
+	
+	/* Private fields */
+	private int[] keys;
+	private TargetSet[] values;
+	private int size = 0;
+	// Index of the character class transitions, null if it has to be rebuilt
+	private IntervalTable intervals = null;
+	
+	TransitionRow() {
+		keys = new int[2];
+		values = new TargetSet[2];
+		Arrays.fill(keys, FREE);
+	}
+	
+	/* Private methods */
+	private static int hash(int key, int mask) {
+		return (key * 0x9E3779B9) >>> 11 & mask;
+	}
+	
+	private int find(int key) {
+		int mask = keys.length - 1;
+		for (int i = hash(key, mask); keys[i] != FREE; i = (i + 1) & mask) {
+			if (keys[i] == key)
+				return i;
+		}
+		return -1;
+	}
+	
+	private void grow() {
+		int[] oldKeys = keys;
+		TargetSet[] oldValues = values;
+		keys = new int[2 * oldKeys.length];
+		values = new TargetSet[2 * oldKeys.length];
+		Arrays.fill(keys, FREE);
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; ++i) {
+			if (oldKeys[i] != FREE) {
+				int j = hash(oldKeys[i], mask);
+				while (keys[j] != FREE)
+					j = (j + 1) & mask;
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+	
+	/* Package private methods */
+	
+	int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the target set for the given symbol ordinal, or null if there is none.
+	 */
+	TargetSet get(int key) {
+		int i = find(key);
+		return i < 0 ? null : values[i];
+	}
+	
+	/**
+	 * Returns the target set for the given symbol ordinal. If there is none, a new empty
+	 * set is inserted. The caller is responsible for filling it.
+	 */
+	TargetSet getOrCreate(int key) {
+		assert(key >= 0);
+		int i = find(key);
+		if (i >= 0)
+			return values[i];
+		// Keep the load factor under 1/2
+		if (2 * (size + 1) > keys.length)
+			grow();
+		int mask = keys.length - 1;
+		i = hash(key, mask);
+		while (keys[i] != FREE)
+			i = (i + 1) & mask;
+		keys[i] = key;
+		values[i] = new TargetSet();
+		++size;
+		return values[i];
+	}
+	
+	/**
+	 * Removes the entry for the given symbol ordinal, if there is one.
+	 */
+	void remove(int key) {
+		int i = find(key);
+		if (i < 0)
+			return;
+		--size;
+		// Backward shift deletion
+		int mask = keys.length - 1;
+		int gap = i;
+		for (int j = (gap + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+			int home = hash(keys[j], mask);
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				gap = j;
+			}
+		}
+		keys[gap] = FREE;
+		values[gap] = null;
+	}
+	
+	int getSlotCount() {
+		return keys.length;
+	}
+	
+	int getKey(int i) {
+		return keys[i];
+	}
+	
+	TargetSet getValue(int i) {
+		return values[i];
+	}
+	
+	/* Returns the approximate number of bytes occupied by this row and its target sets,
+	 * the interval table is not counted, as it is only a cache */
+	long getMemoryFootprint() {
+		long result = 32 + 2 * 16 + 4L * keys.length + 4L * values.length;
+		for (int i = 0; i < keys.length; ++i) {
+			if (keys[i] != FREE)
+				result += values[i].getMemoryFootprint();
+		}
+		return result;
+	}
+	
+	/**
+	 * Marks the interval table as outdated. Has to be called after a character class
+	 * transition has been changed.
+	 */
+	void invalidateIntervals() {
+		intervals = null;
+	}
+	
+	/**
+	 * Returns the targets of all character class transitions matching the given character,
+	 * or null if there are none.
+	 */
+	int[] getClassTargets(char c) {
+		IntervalTable table = intervals;
+		if (table == null) {
+			table = buildIntervals();
+			intervals = table;
+		}
+		return table.lookup(c);
+	}
+	
+	/* Private methods for the interval table */
+	
+	/* Splits the alphabet into intervals by the bounds of all class ranges and computes
+	 * the targets for each of them */
+	private IntervalTable buildIntervals() {
+		ArrayList<Symbol> classes = new ArrayList<>();
+		ArrayList<TargetSet> classTargets = new ArrayList<>();
+		TreeSet<Integer> bounds = new TreeSet<>();
+		for (int i = 0; i < keys.length; ++i) {
+			if (keys[i] == FREE)
+				continue;
+			Symbol symbol = Symbol.fromOrdinal(keys[i]);
+			if (!symbol.isCharClass())
+				continue;
+			classes.add(symbol);
+			classTargets.add(values[i]);
+			for (int r = 0; r < symbol.getRangeCount(); ++r) {
+				bounds.add((int) symbol.getRangeStart(r));
+				bounds.add(symbol.getRangeEnd(r) + 1);
+			}
+		}
+		if (classes.isEmpty())
+			return IntervalTable.EMPTY;
+		
+		ArrayList<Integer> starts = new ArrayList<>();
+		ArrayList<int[]> targets = new ArrayList<>();
+		for (int start : bounds) {
+			if (start > Character.MAX_VALUE)
+				break;
+			// Targets of all classes containing this interval
+			TargetSet merged = new TargetSet();
+			for (int k = 0; k < classes.size(); ++k) {
+				if (classes.get(k).matches((char) start)) {
+					TargetSet set = classTargets.get(k);
+					for (int j = 0; j < set.getSlotCount(); ++j) {
+						if (set.getSlot(j) != TargetSet.FREE)
+							merged.add(set.getSlot(j));
+					}
+				}
+			}
+			int[] array = merged.isEmpty() ? null : toArray(merged);
+			// Merge with the previous interval, if it has the same targets
+			if (!targets.isEmpty() && Arrays.equals(targets.get(targets.size() - 1), array))
+				continue;
+			starts.add(start);
+			targets.add(array);
+		}
+		char[] startArray = new char[starts.size()];
+		for (int i = 0; i < startArray.length; ++i) {
+			startArray[i] = (char) (int) starts.get(i);
+		}
+		return new IntervalTable(startArray, targets.toArray(new int[targets.size()][]));
+	}
+	
+	private static int[] toArray(TargetSet set) {
+		int[] result = new int[set.size()];
+		int length = 0;
+		for (int i = 0; i < set.getSlotCount(); ++i) {
+			if (set.getSlot(i) != TargetSet.FREE)
+				result[length++] = set.getSlot(i);
+		}
+		Arrays.sort(result);
+		return result;
+	}
+	
+	/* Nested classes */
+	
+	/* Sorted disjoint intervals of characters, each with its targets. The i-th interval
+	 * starts at starts[i] and ends right before starts[i + 1] (or at the end of the alphabet).
+	 * Characters before starts[0] have no targets. Immutable, so it can be built lazily even
+	 * while the automaton is shared among threads. */
+	private static class IntervalTable {
+		static final IntervalTable EMPTY = new IntervalTable(new char[0], new int[0][]);
+		
+		private final char[] starts;
+		private final int[][] targets;
+		
+		IntervalTable(char[] starts, int[][] targets) {
+			this.starts = starts;
+			this.targets = targets;
+		}
+		
+		int[] lookup(char c) {
+			// Binary search for the last interval starting at or before c
+			int lo = 0;
+			int hi = starts.length - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (starts[mid] <= c)
+					lo = mid + 1;
+				else
+					hi = mid - 1;
+			}
+			return hi >= 0 ? targets[hi] : null;
+		}
+	}
+}
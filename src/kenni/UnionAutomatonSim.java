@@ -150,6 +150,26 @@ public class UnionAutomatonSim extends BaseAutomaton {
 		return result;
 	}
 
+	@Override
+	public Collection<State> getTransition(State state, char c) {
+		if (state.equals(startState))
+			return new HashSet<>();
+		else if (autToBranchID.containsKey(state.parent))
+			return state.parent.getTransition(state, c);
+		else
+			return new HashSet<>();
+	}
+	
+	@Override
+	public Collection<State> getTransition(Collection<State> stateSet, char c) {
+		HashSet<State> result = new HashSet<>();
+		for (State state : stateSet) {
+			if (!state.equals(startState) && autToBranchID.containsKey(state.parent))
+				result.addAll(state.parent.getTransition(state, c));
+		}
+		return result;
+	}
+	
 	@Override
 	public void actionOverStates(Consumer<State> action) {
 		action.accept(startState);
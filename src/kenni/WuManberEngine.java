@@ -0,0 +1,190 @@
+package kenni;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <p>Multi-pattern search engine implementing the Wu-Manber algorithm, meant for very large
+ * dictionaries of short patterns. A window as long as the shortest pattern is moved over
+ * the text. The block of the last few characters of the window is hashed and looked up in
+ * a shift table, which tells how far the window can be moved without skipping a match.
+ * If the shift is zero, the patterns of the bucket of the whole window are verified against
+ * the text.</p>
+ * <p>
+ * All data are kept in a few flat arrays: the patterns are stored folded and concatenated
+ * in one char array, buckets are linked lists of pattern indices. The size of the tables
+ * grows with the number of patterns, so the shifts stay long even for large dictionaries.</p>
+ * @author Libor
+ *
+ */
+public class WuManberEngine implements ISearchEngine {
+	/* Static fields and constants */
+	private static final int NONE = -1;
+	private static final int MIN_TABLE_BITS = 12;
+	private static final int MAX_TABLE_BITS = 22;
+	
+	/* Private fields */
+	private final CaseFolding folding;
+	private final int patternCount;
+	// Pattern i is stored folded in store[offsets[i], offsets[i + 1])
+	private final char[] store;
+	private final int[] offsets;
+	private final int minLength;
+	// Length of the hashed blocks
+	private final int blockLength;
+	private final int tableMask;
+	private final int[] shift;
+	// Patterns are bucketed by the hash of their first minLength characters, i.e. of the whole
+	// window. These are the first pattern of each bucket and the next pattern in the same bucket.
+	private final int[] bucketHead;
+	private final int[] bucketNext;
+	// The full (unmasked) window hash of each pattern, used to reject patterns before verifying
+	private final int[] windowHash;
+	
+	/* Constructors */
+	
+	/**
+	 * Creates the engine for the given patterns.
+	 * @param patterns Non-empty patterns.
+	 * @param folding Case folding of the patterns.
+	 */
+	public WuManberEngine(String[] patterns, CaseFolding folding) {
+		if (patterns.length == 0)
+			throw new IllegalArgumentException("At least one pattern is required");
+		this.folding = folding;
+		this.patternCount = patterns.length;
+		
+		// Store the folded patterns
+		long total = 0;
+		int min = Integer.MAX_VALUE;
+		for (String pattern : patterns) {
+			if (pattern.length() == 0)
+				throw new IllegalArgumentException("Patterns must not be empty");
+			total += pattern.length();
+			min = Math.min(min, pattern.length());
+		}
+		store = new char[(int) total];
+		offsets = new int[patternCount + 1];
+		for (int i = 0; i < patternCount; ++i) {
+			String pattern = patterns[i];
+			for (int j = 0; j < pattern.length(); ++j)
+				store[offsets[i] + j] = folding.fold(pattern.charAt(j));
+			offsets[i + 1] = offsets[i] + pattern.length();
+		}
+		minLength = min;
+		// Longer blocks are more selective, which matters for many patterns
+		blockLength = Math.min(minLength, patternCount > 4096 ? 3 : 2);
+		
+		int bits = MIN_TABLE_BITS;
+		while (bits < MAX_TABLE_BITS && (1 << bits) < 4 * patternCount)
+			++bits;
+		tableMask = (1 << bits) - 1;
+		shift = new int[tableMask + 1];
+		bucketHead = new int[tableMask + 1];
+		bucketNext = new int[patternCount];
+		windowHash = new int[patternCount];
+		Arrays.fill(shift, minLength - blockLength + 1);
+		Arrays.fill(bucketHead, NONE);
+		
+		// Only the first minLength characters of each pattern are used for shifting. Patterns
+		// are inserted in reverse order, so that buckets are sorted by pattern index.
+		for (int i = patternCount - 1; i >= 0; --i) {
+			int start = offsets[i];
+			for (int q = blockLength; q <= minLength; ++q) {
+				int h = hashBlock(store, start + q - blockLength);
+				shift[h] = Math.min(shift[h], minLength - q);
+			}
+			windowHash[i] = hashWindow(store, start);
+			int bucket = windowHash[i] & tableMask;
+			bucketNext[i] = bucketHead[bucket];
+			bucketHead[bucket] = i;
+		}
+	}
+	
+	/* Private methods */
+	
+	private int hashBlock(char[] chars, int from) {
+		int h = 0;
+		for (int i = 0; i < blockLength; ++i)
+			h = h * 0x9E3779B1 + chars[from + i];
+		return (h ^ (h >>> 15)) & tableMask;
+	}
+	
+	private int hashBlock(String text, int from) {
+		int h = 0;
+		for (int i = 0; i < blockLength; ++i)
+			h = h * 0x9E3779B1 + folding.fold(text.charAt(from + i));
+		return (h ^ (h >>> 15)) & tableMask;
+	}
+	
+	private int hashWindow(char[] chars, int from) {
+		int h = 0;
+		for (int i = 0; i < minLength; ++i)
+			h = h * 31 + chars[from + i];
+		return h ^ (h >>> 16);
+	}
+	
+	private int hashWindow(String text, int from) {
+		int h = 0;
+		for (int i = 0; i < minLength; ++i)
+			h = h * 31 + folding.fold(text.charAt(from + i));
+		return h ^ (h >>> 16);
+	}
+	
+	/* Compares the pattern with the text starting at the given position */
+	private boolean verify(int pattern, String text, int start) {
+		int from = offsets[pattern];
+		int length = offsets[pattern + 1] - from;
+		if (start + length > text.length())
+			return false;
+		for (int j = 0; j < length; ++j) {
+			if (store[from + j] != folding.fold(text.charAt(start + j)))
+				return false;
+		}
+		return true;
+	}
+	
+	/* Public methods */
+	
+	@Override
+	public ArrayList<Pair<Integer>> searchAll(String text) {
+		// Matches are found by their starts, they are sorted by their ends afterwards.
+		// Each match is encoded as end << 32 | pattern.
+		long[] found = new long[16];
+		int foundCount = 0;
+		int length = text.length();
+		int last = minLength - 1;
+		while (last < length) {
+			int h = hashBlock(text, last - blockLength + 1);
+			int s = shift[h];
+			if (s > 0) {
+				last += s;
+				continue;
+			}
+			int start = last - minLength + 1;
+			int window = hashWindow(text, start);
+			for (int p = bucketHead[window & tableMask]; p != NONE; p = bucketNext[p]) {
+				if (windowHash[p] == window && verify(p, text, start)) {
+					if (foundCount == found.length)
+						found = Arrays.copyOf(found, 2 * found.length);
+					found[foundCount++] = ((long) (start + offsets[p + 1] - offsets[p]) << 32) | p;
+				}
+			}
+			++last;
+		}
+		Arrays.sort(found, 0, foundCount);
+		ArrayList<Pair<Integer>> result = new ArrayList<>(foundCount);
+		for (int i = 0; i < foundCount; ++i)
+			result.add(new Pair<Integer>((int) found[i], (int) (found[i] >>> 32)));
+		return result;
+	}
+	
+	/**
+	 * Returns the approximate number of bytes occupied by the tables of this engine.
+	 * @return
+	 */
+	public long getMemoryFootprint() {
+		return 2L * store.length + 4L * (offsets.length + shift.length + bucketHead.length
+				+ bucketNext.length + windowHash.length);
+	}
+}
@@ -0,0 +1,53 @@
+package kenni;
+
+/**
+ * Tests of Sfoeco.searchApproximate for string patterns and for pattern automata.
+ * Run by its main method, which throws AssertionError on the first failure.
+ * @author Libor
+ *
+ */
+public class ApproximateSearchTest {
+	
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+	
+	static void testStringPattern() {
+		Sfoeco sfoeco = new Sfoeco("abc", CaseFolding.SIMPLE);
+		String found = sfoeco.searchApproximate("xAbcxabxaxc", 1).toString();
+		check(found.equals("[[3, 1], [4, 0], [5, 1], [7, 1], [8, 1], [11, 1]]"), "Folded matches: " + found);
+	}
+	
+	static void testPatternAutomaton() {
+		// The automaton of the same pattern gives the same matches as the string
+		String text = "xAbcxabxaxcabbc";
+		for (int maxErrors = 0; maxErrors < 3; ++maxErrors) {
+			String expected = new Sfoeco("abc").searchApproximate(text, maxErrors).toString();
+			String found = new Sfoeco(Sfoeco.createPatternAutomaton("abc", "")).searchApproximate(text, maxErrors).toString();
+			check(found.equals(expected), maxErrors + " errors: " + found + " instead of " + expected);
+		}
+	}
+	
+	static void testWildCard() {
+		// a.c
+		Automaton pattern = new Automaton("w");
+		AutomatonBuilder builder = new AutomatonBuilder(pattern);
+		builder.insertTransition(0, Symbol.getSymbol('a'), 1);
+		builder.insertTransition(1, Symbol.WILD_CARD, 2);
+		builder.insertTransition(2, Symbol.getSymbol('c'), 3);
+		builder.setStartState(0);
+		builder.markAsFinal(3);
+		Sfoeco sfoeco = new Sfoeco(pattern);
+		check(sfoeco.searchApproximate("xaxcx", 0).toString().equals("[[4, 0]]"), "Exact match over the wild card");
+		String found = sfoeco.searchApproximate("xaxcx", 1).toString();
+		check(found.equals("[[3, 1], [4, 0], [5, 1]]"), "Matches with one error: " + found);
+	}
+	
+	public static void main(String[] args) {
+		testStringPattern();
+		testPatternAutomaton();
+		testWildCard();
+		System.out.println("ApproximateSearchTest: ok");
+	}
+}
@@ -0,0 +1,59 @@
+package kenni;
+
+import java.util.ArrayList;
+
+/**
+ * Tests of CaseFolding.SIMPLE against the simple case folding of CaseFolding.txt.
+ * Run by its main method, which throws AssertionError on the first failure.
+ * @author Libor
+ *
+ */
+public class CaseFoldingTest {
+	
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+	
+	/* Returns the ends of the matches of the pattern in the text */
+	private static String ends(String pattern, String text) {
+		Sffeco sffeco = new Sffeco(new Sffeco.Options().setCaseFolding(CaseFolding.SIMPLE), pattern);
+		ArrayList<Integer> result = new ArrayList<>();
+		for (Pair<Integer> match : sffeco.search(text))
+			result.add(match.second);
+		return result.toString();
+	}
+	
+	static void testTurkicI() {
+		CaseFolding folding = CaseFolding.SIMPLE;
+		check(folding.fold('I') == 'i', "I folds to i");
+		check(folding.fold('\u0131') == '\u0131', "Dotless i folds to itself");
+		check(folding.fold('\u0130') == '\u0130', "Dotted capital I folds to itself");
+		// Text: dotless i, dotted capital I, I, i
+		String text = "\u0131\u0130Ii";
+		check(ends("i", text).equals("[3, 4]"), "i matches only I and i: " + ends("i", text));
+		check(ends("I", text).equals("[3, 4]"), "I matches only I and i: " + ends("I", text));
+		check(ends("\u0131", text).equals("[1]"), "Dotless i matches only itself: " + ends("\u0131", text));
+		check(ends("\u0130", text).equals("[2]"), "Dotted capital I matches only itself: " + ends("\u0130", text));
+	}
+	
+	static void testSimpleMappings() {
+		CaseFolding folding = CaseFolding.SIMPLE;
+		// Kelvin sign, long s, final sigma and capital sharp s
+		check(folding.fold('\u212A') == 'k', "Kelvin sign folds to k");
+		check(folding.fold('\u017F') == 's', "Long s folds to s");
+		check(folding.fold('\u03C2') == '\u03C3', "Final sigma folds to sigma");
+		check(folding.fold('\u1E9E') == '\u00DF', "Capital sharp s folds to sharp s");
+		check(folding.fold('\u00DF') == '\u00DF', "Sharp s has no simple folding");
+		// S mappings of canonically equivalent characters
+		check(folding.fold('\u1FD3') == folding.fold('\u0390'), "U+1FD3 folds to U+0390");
+		check(folding.fold('\uFB05') == folding.fold('\uFB06'), "U+FB05 folds to U+FB06");
+		check(ends("k", "K\u212Ak").equals("[1, 2, 3]"), "k matches K and the Kelvin sign");
+	}
+	
+	public static void main(String[] args) {
+		testTurkicI();
+		testSimpleMappings();
+		System.out.println("CaseFoldingTest: ok");
+	}
+}
@@ -0,0 +1,70 @@
+package kenni;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Tests of CompactNfa and its users over automata reporting states of other automata,
+ * like UnionAutomatonSim does. Run by its main method, which throws AssertionError on
+ * the first failure.
+ * @author Libor
+ *
+ */
+public class CompactNfaTest {
+	
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+	
+	/* The branch states of the union reuse the indices 0.. of their own automata */
+	private static UnionAutomatonSim createUnion() {
+		return new UnionAutomatonSim("u", Sfoeco.createPatternAutomaton("ab", "x"),
+				Sfoeco.createPatternAutomaton("cd", "y"));
+	}
+	
+	static void testFlattenUnion() {
+		UnionAutomatonSim union = createUnion();
+		CompactNfa nfa = new CompactNfa(union);
+		// Init and three states of each branch
+		check(nfa.getStateCount() == 7, "All states are numbered: " + nfa.getStateCount());
+		check(nfa.getOriginalState(nfa.getStartState()) == union.getStartState(), "The start state is kept");
+		SparseSimulator simulator = new SparseSimulator(nfa);
+		for (String sentence : new String[] { "ab", "cd" })
+			check(simulator.accepts(sentence), "Accepts " + sentence);
+		for (String sentence : new String[] { "", "ad", "cb", "abcd" })
+			check(!simulator.accepts(sentence), "Rejects " + sentence);
+	}
+	
+	static void testStatistics() {
+		AutomatonStatistics statistics = AutomatonStatistics.compute(createUnion());
+		check(statistics.getStateCount() == 7, "States are counted: " + statistics.getStateCount());
+		check(!statistics.isDeterministic(), "The union is not deterministic");
+	}
+	
+	static void testStreamScanner() {
+		// Force the simulation of the automaton
+		StreamScanner scanner = new StreamScanner(createUnion(), 0);
+		check(!scanner.isDeterministic(), "The automaton is simulated");
+		final ArrayList<Long> ends = new ArrayList<>();
+		ScanState state = scanner.start();
+		for (String fragment : new String[] { "a", "b" })
+			state = scanner.resume(state, fragment, (int label, long end) -> ends.add(end));
+		check(ends.equals(Arrays.asList(2L)), "The whole sentence is matched: " + ends);
+	}
+	
+	static void testPikeVM() {
+		PikeVM vm = new PikeVM(createUnion(), new CaptureTagger());
+		int[] slots = vm.match("cd");
+		check(slots != null && slots[0] == 0 && slots[1] == 2, "Matches cd: " + Arrays.toString(slots));
+		check(vm.match("ad") == null, "Does not match ad");
+	}
+	
+	public static void main(String[] args) {
+		testFlattenUnion();
+		testStatistics();
+		testStreamScanner();
+		testPikeVM();
+		System.out.println("CompactNfaTest: ok");
+	}
+}
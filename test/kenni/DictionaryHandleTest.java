@@ -0,0 +1,94 @@
+package kenni;
+
+import java.util.ArrayList;
+
+import kenni.Sffeco.Engine;
+
+/**
+ * Tests that changes of a DictionaryHandle reuse the automata of the unchanged patterns.
+ * Run by its main method, which throws AssertionError on the first failure.
+ * @author Libor
+ *
+ */
+public class DictionaryHandleTest {
+	
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+	
+	/* Returns the index of the pattern with the given ID in the snapshot, or -1 */
+	private static int indexOf(DictionaryHandle.Snapshot snapshot, int patternID) {
+		for (int i = 0; i < snapshot.getDictionary().getPatterns().length; ++i) {
+			if (snapshot.getPatternID(i) == patternID)
+				return i;
+		}
+		return -1;
+	}
+	
+	/* Checks that the snapshot uses the automata of the given patterns compiled for the older one */
+	private static void checkReused(DictionaryHandle.Snapshot older, DictionaryHandle.Snapshot newer, int... patternIDs) {
+		for (int id : patternIDs) {
+			BaseAutomaton before = older.getDictionary().getCompiledPattern(indexOf(older, id));
+			BaseAutomaton after = newer.getDictionary().getCompiledPattern(indexOf(newer, id));
+			check(before != null && before == after, "The automaton of pattern " + id + " has been compiled again");
+		}
+	}
+	
+	private static void checkEngine(DictionaryHandle.Snapshot snapshot) {
+		Engine engine = snapshot.getDictionary().getPlan().getEngine();
+		check(engine == Engine.AUTOMATON || engine == Engine.SPARSE_NFA || engine == Engine.COMPILED_DFA,
+				"The engine does not use the compiled automata: " + snapshot.getDictionary().getPlan());
+	}
+	
+	/* Returns the IDs of the patterns matching the text, ordered by their ends */
+	private static String ids(DictionaryHandle handle, String text) {
+		ArrayList<Integer> result = new ArrayList<>();
+		for (Pair<Integer> match : handle.search(text, Sffeco.MatchMode.ALL))
+			result.add(match.first);
+		return result.toString();
+	}
+	
+	static void testAddReusesAutomata() {
+		DictionaryHandle handle = new DictionaryHandle("he", "she", "his", "hers");
+		DictionaryHandle.Snapshot first = handle.getSnapshot();
+		checkEngine(first);
+		int id = handle.add("us");
+		DictionaryHandle.Snapshot second = handle.getSnapshot();
+		checkEngine(second);
+		checkReused(first, second, 0, 1, 2, 3);
+		check(ids(handle, "ushers").equals("[4, 0, 1, 3]"), "Search after add: " + ids(handle, "ushers"));
+		check(id == 4, "IDs are assigned in order");
+	}
+	
+	static void testRemoveReusesAutomata() {
+		DictionaryHandle handle = new DictionaryHandle("he", "she", "his", "hers");
+		DictionaryHandle.Snapshot first = handle.getSnapshot();
+		check(handle.removeAll(1, 2) == 2, "Both patterns are removed");
+		DictionaryHandle.Snapshot second = handle.getSnapshot();
+		checkEngine(second);
+		checkReused(first, second, 0, 3);
+		check(ids(handle, "ushers").equals("[0, 3]"), "Search after remove: " + ids(handle, "ushers"));
+	}
+	
+	static void testLargeDictionary() {
+		// Planned from the strings, this dictionary would get an engine ignoring the automata
+		String[] patterns = new String[1000];
+		for (int i = 0; i < patterns.length; ++i)
+			patterns[i] = "word" + i;
+		DictionaryHandle handle = new DictionaryHandle(patterns);
+		DictionaryHandle.Snapshot first = handle.getSnapshot();
+		checkEngine(first);
+		handle.add("extra");
+		DictionaryHandle.Snapshot second = handle.getSnapshot();
+		checkEngine(second);
+		checkReused(first, second, 0, 1, 500, 999);
+	}
+	
+	public static void main(String[] args) {
+		testAddReusesAutomata();
+		testRemoveReusesAutomata();
+		testLargeDictionary();
+		System.out.println("DictionaryHandleTest: ok");
+	}
+}
@@ -0,0 +1,57 @@
+package kenni;
+
+/**
+ * Tests of the regular operations over automata, whose states belong to other automata.
+ * Run by its main method, which throws AssertionError on the first failure.
+ * @author Libor
+ *
+ */
+public class RegularFactoryTest {
+	
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+	
+	private static void checkLanguage(BaseAutomaton aut, String[] accepted, String[] rejected) {
+		BasicSimulator simulator = new BasicSimulator(aut);
+		for (String sentence : accepted)
+			check(simulator.accepts(sentence), aut.getName() + " accepts " + sentence);
+		for (String sentence : rejected)
+			check(!simulator.accepts(sentence), aut.getName() + " rejects " + sentence);
+	}
+	
+	/* The branch states of the union reuse the indices 0.. of their own automata */
+	private static UnionAutomatonSim createUnion() {
+		return new UnionAutomatonSim("u", Sfoeco.createPatternAutomaton("ab", "x"),
+				Sfoeco.createPatternAutomaton("cd", "y"));
+	}
+	
+	static void testUnionOfUnion() {
+		BaseAutomaton z = Sfoeco.createPatternAutomaton("e", "z");
+		checkLanguage(DirectRegularFactory.get().union("r", createUnion(), z),
+				new String[] { "ab", "cd", "e" }, new String[] { "", "ad", "cb", "abe" });
+	}
+	
+	static void testConcatenationAndIterationOfUnion() {
+		BaseAutomaton z = Sfoeco.createPatternAutomaton("e", "z");
+		checkLanguage(DirectRegularFactory.get().concatenation("c", createUnion(), z),
+				new String[] { "abe", "cde" }, new String[] { "ab", "e", "abcde" });
+		checkLanguage(DirectRegularFactory.get().iteration("i", createUnion()),
+				new String[] { "", "ab", "cdab", "abcdcd" }, new String[] { "a", "abc", "ba" });
+	}
+	
+	static void testReversalOfUnion() {
+		checkLanguage(DirectRegularFactory.get().reversal("r", createUnion()),
+				new String[] { "ba", "dc" }, new String[] { "ab", "cd", "" });
+		checkLanguage(SimRegularFactory.get().reversal("s", createUnion()),
+				new String[] { "ba", "dc" }, new String[] { "ab", "cd", "" });
+	}
+	
+	public static void main(String[] args) {
+		testUnionOfUnion();
+		testConcatenationAndIterationOfUnion();
+		testReversalOfUnion();
+		System.out.println("RegularFactoryTest: ok");
+	}
+}
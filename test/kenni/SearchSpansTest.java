@@ -0,0 +1,65 @@
+package kenni;
+
+/**
+ * Tests of Sfoeco.searchSpans for string patterns and for pattern automata of variable length.
+ * Run by its main method, which throws AssertionError on the first failure.
+ * @author Libor
+ *
+ */
+public class SearchSpansTest {
+	
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+	
+	/* Creates the automaton of a+ */
+	private static Automaton createRepetition() {
+		Automaton pattern = new Automaton("a+");
+		AutomatonBuilder builder = new AutomatonBuilder(pattern);
+		builder.insertTransition(0, Symbol.getSymbol('a'), 1);
+		builder.insertTransition(1, Symbol.getSymbol('a'), 1);
+		builder.setStartState(0);
+		builder.markAsFinal(1);
+		return pattern;
+	}
+	
+	static void testStringPattern() {
+		String found = new Sfoeco("aba", CaseFolding.SIMPLE).searchSpans("xAbAbAcaBa").toString();
+		check(found.equals("[[1, 4], [3, 6], [7, 10]]"), "Overlapping folded matches: " + found);
+	}
+	
+	static void testRepetition() {
+		// Every end gets the leftmost start of its run of a's
+		String found = new Sfoeco(createRepetition()).searchSpans("aabaaa").toString();
+		check(found.equals("[[0, 1], [0, 2], [3, 4], [3, 5], [3, 6]]"), "Spans of a+: " + found);
+	}
+	
+	static void testLongRun() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 100000; ++i)
+			text.append('a');
+		Sfoeco sfoeco = new Sfoeco(createRepetition());
+		int count = 0;
+		for (Pair<Integer> span : sfoeco.searchSpans(text.toString())) {
+			check(span.first == 0 && span.second == ++count, "Span " + span);
+		}
+		check(count == text.length(), "Every position is an end: " + count);
+	}
+	
+	static void testEmptyMatch() {
+		// a* matches the empty word at every position
+		Automaton pattern = createRepetition();
+		pattern.markAsFinal(pattern.getStartState());
+		String found = new Sfoeco(pattern).searchSpans("ba").toString();
+		check(found.equals("[[0, 0], [1, 1], [1, 2]]"), "Spans of a*: " + found);
+	}
+	
+	public static void main(String[] args) {
+		testStringPattern();
+		testRepetition();
+		testLongRun();
+		testEmptyMatch();
+		System.out.println("SearchSpansTest: ok");
+	}
+}